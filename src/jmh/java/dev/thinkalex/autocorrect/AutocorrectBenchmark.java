@@ -0,0 +1,238 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AutocorrectBenchmark
+ * <p>
+ * Microbenchmarks for the hot paths of a query: scoring one word ({@code editDistance}), finding the candidates
+ * ({@code getPotentialWords}) and the whole query ({@code getTopResults}), across typed word lengths, edit
+ * distances 1-3 and search strategies, as well as prefix completions ({@code getCompletions}). The typed words
+ * are misspellings of words from the large dictionary, made with a fixed seed (so every run and every release
+ * measures the same inputs), each with as many random edits as the edit distance limit.
+ * </p>
+ * <p>
+ * Run with the jmh profile (see the README); add {@code -prof gc} to the arguments for allocation rates.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AutocorrectBenchmark {
+    // Misspellings per parameter combination (cycled through, so no single word's cost dominates)
+    private static final int INPUTS = 1024;
+    private static final long SEED = 42;
+
+    // The dictionary is loaded once per fork (it's the same for every combination)
+    private static String[] words;
+
+    @State(Scope.Thread)
+    public static class Inputs {
+        @Param({"4", "8", "12"})
+        public int length;
+
+        @Param({"1", "2", "3"})
+        public int distance;
+
+        String[] typed;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            typed = misspellings(length, distance);
+        }
+
+        String next() {
+            String word = typed[next];
+            next = (next + 1) % typed.length;
+            return word;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ScoringState {
+        WordStore dictionary;
+        LevenshteinDistance.Pattern[] patterns;
+        int[] ids;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Inputs inputs) {
+            // Score each misspelling against a word from its length window (a candidate a query would score)
+            dictionary = new WordStore(dictionary());
+            Random random = new Random(SEED);
+            patterns = new LevenshteinDistance.Pattern[INPUTS];
+            ids = new int[INPUTS];
+            for (int i = 0; i < INPUTS; i++) {
+                String word = inputs.typed[i];
+                patterns[i] = LevenshteinDistance.compile(word);
+                int start = dictionary.lengthStart(word.length() - inputs.distance);
+                int end = dictionary.lengthEnd(word.length() + inputs.distance);
+                ids[i] = dictionary.idAt(start + random.nextInt(end - start));
+            }
+        }
+
+        int next() {
+            int i = next;
+            next = (i + 1) % INPUTS;
+            return i;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CandidateState {
+        // Only these generate a candidate list: the others find and score candidates in one walk (see getTopResults)
+        @Param({"LINEAR", "TRIGRAM", "SYMSPELL"})
+        public SearchStrategy strategy;
+
+        Autocorrect autocorrect;
+        QueryOptions options;
+        final IdList candidates = new IdList();
+
+        @Setup(Level.Trial)
+        public void setUp(Inputs inputs) {
+            autocorrect = newAutocorrect(inputs.distance, strategy);
+            options = autocorrect.getDefaultOptions();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class QueryState {
+        @Param({"LINEAR", "TRIGRAM", "SYMSPELL", "BK_TREE", "DAWG", "TRIE", "AUTO"})
+        public SearchStrategy strategy;
+
+        Autocorrect autocorrect;
+        QueryOptions options;
+
+        @Setup(Level.Trial)
+        public void setUp(Inputs inputs) {
+            autocorrect = newAutocorrect(inputs.distance, strategy);
+            options = autocorrect.getDefaultOptions();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CompletionState {
+        @Param({"false", "true"})
+        public boolean fuzzy;
+
+        Autocorrect autocorrect;
+        String[] prefixes;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            // Prefixes of 1-8 characters of dictionary words, half of them with a typo
+            autocorrect = newAutocorrect(1, SearchStrategy.LINEAR);
+            String[] dictionary = dictionary();
+            Random random = new Random(SEED);
+            prefixes = new String[INPUTS];
+            for (int i = 0; i < INPUTS; i++) {
+                String word = dictionary[random.nextInt(dictionary.length)];
+                String prefix = word.substring(0, Math.min(word.length(), 1 + random.nextInt(8)));
+                prefixes[i] = random.nextBoolean() ? mutate(random, prefix, 1) : prefix;
+            }
+            autocorrect.getCompletions("");
+        }
+
+        String next() {
+            String prefix = prefixes[next];
+            next = (next + 1) % INPUTS;
+            return prefix;
+        }
+    }
+
+    @Benchmark
+    public int editDistance(Inputs inputs, ScoringState state) {
+        int i = state.next();
+        return Autocorrect.editDistance(state.dictionary, state.ids[i], state.patterns[i], inputs.distance);
+    }
+
+    @Benchmark
+    public int getPotentialWords(Inputs inputs, CandidateState state) {
+        state.candidates.clear();
+        boolean narrowed = state.autocorrect.getPotentialWords(state.autocorrect.snapshot().base, inputs.next(),
+                state.options, state.candidates);
+        return narrowed ? state.candidates.size() : -1;
+    }
+
+    @Benchmark
+    public List<Autocorrect.Result> getTopResults(Inputs inputs, QueryState state) {
+        return state.autocorrect.getTopResults(inputs.next(), state.options, null);
+    }
+
+    @Benchmark
+    public List<String> getCompletions(CompletionState state) {
+        return state.autocorrect.getCompletions(state.next(), 10, state.fuzzy);
+    }
+
+    /**
+     * Builds an autocorrect for the large dictionary, with its index built and the result cache off (so every
+     * invocation searches).
+     */
+    private static Autocorrect newAutocorrect(int distance, SearchStrategy strategy) {
+        Autocorrect autocorrect = new Autocorrect(dictionary(), distance, 10, false, strategy);
+        autocorrect.setResultCache(0, 0);
+        return autocorrect;
+    }
+
+    private static synchronized String[] dictionary() {
+        if (words == null) {
+            words = IndexFile.parseDictionary(IndexFile.readDictionaryText("large"));
+        }
+        return words;
+    }
+
+    /**
+     * Returns misspellings of dictionary words, as long as the given length after the edits.
+     */
+    private static String[] misspellings(int length, int edits) {
+        String[] dictionary = dictionary();
+        Random random = new Random(SEED + length * 31L + edits);
+        List<String> typed = new ArrayList<>(INPUTS);
+        while (typed.size() < INPUTS) {
+            String word = mutate(random, dictionary[random.nextInt(dictionary.length)], edits);
+            if (word.length() == length) {
+                typed.add(word);
+            }
+        }
+        return typed.toArray(new String[0]);
+    }
+
+    /**
+     * Applies random edits (deletions, insertions and substitutions) to a word.
+     */
+    private static String mutate(Random random, String word, int edits) {
+        StringBuilder mutated = new StringBuilder(word);
+        for (int i = 0; i < edits; i++) {
+            int operation = random.nextInt(3);
+            if (operation == 0 && mutated.length() > 0) {
+                mutated.deleteCharAt(random.nextInt(mutated.length()));
+            } else if (operation == 1) {
+                mutated.insert(random.nextInt(mutated.length() + 1), (char) ('a' + random.nextInt(26)));
+            } else if (mutated.length() > 0) {
+                mutated.setCharAt(random.nextInt(mutated.length()), (char) ('a' + random.nextInt(26)));
+            }
+        }
+        return mutated.toString();
+    }
+}
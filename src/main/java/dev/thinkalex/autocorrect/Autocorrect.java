@@ -1,13 +1,21 @@
 package dev.thinkalex.autocorrect;
 
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Autocorrect
@@ -19,36 +27,62 @@ import java.util.*;
  */
 @Service
 public class Autocorrect {
-    // Dictionary
-    HashSet<String> dictionary;
-    HashMap<String, ArrayList<String>> tokens = new HashMap<>();
+    // Dictionary: an immutable base (with its indexes), and the words added and removed since it was built
+    private volatile Snapshot snapshot;
 
-    // Configuration
-    private int editDistanceLimit;
-    private int responseLimit;
-    private boolean ignoreValidWords;
-    private int tokenSize = 3;
-    private static boolean tokenizeWords;
+    // Live updates: mutations are serialized, and publish a new snapshot (queries never wait for them)
+    private final Object mutationLock = new Object();
+    private final Object compactionLock = new Object();
+    private boolean compacting;
+    private ExecutorService compactor;
 
+    // Configuration (the options of queries which don't pass their own)
+    private final QueryOptions defaults;
 
-    public Autocorrect(String[] words, int editDistanceLimit, int responseLimit, boolean ignoreValidWords, boolean tokenizeWords) {
-        // Load the dictionary
-        dictionary = new HashSet<>();
-        dictionary.addAll(Arrays.asList(words));
+    // Parallel scoring (opt-in): candidate lists at least threshold long are split across the pool
+    private volatile ScoringPool scoringPool;
+
+    // Result cache (opt-in): repeated queries are answered without searching
+    private volatile SuggestionCache resultCache;
+
+    // Completions: how many are kept per prefix, and the word frequencies they're ranked by (null to rank by length)
+    private volatile int completionSize = DEFAULT_COMPLETION_SIZE;
+    private volatile Map<String, Long> wordFrequencies;
+
+    // Query metrics (opt-in): each stage is timed only when a recorder is set
+    private volatile QueryMetrics queryMetrics;
+    private final ThreadLocal<QueryTrace> traces = ThreadLocal.withInitial(QueryTrace::new);
+
+    // Words added or removed before the base dictionary is rebuilt (at least this many, or 1/64 of the base)
+    private static final int MIN_COMPACTION_CHANGES = 1024;
+    private static final WordStore EMPTY = new WordStore(new String[0]);
+    private static final int DEFAULT_COMPLETION_SIZE = 10;
+    // The number of characters of a stream corrected at once (more if a single word is longer)
+    private static final int READ_BLOCK_SIZE = 1 << 16;
+
+    // Per-thread query buffers, reused so that a query allocates (almost) nothing
+    private final ThreadLocal<TopKSelector> selectors = ThreadLocal.withInitial(TopKSelector::new);
+    private final ThreadLocal<IdList> candidateLists = ThreadLocal.withInitial(IdList::new);
 
+    public Autocorrect(String[] words, int editDistanceLimit, int responseLimit, boolean ignoreValidWords, SearchStrategy strategy) {
+        // Load the dictionary (lowercased, deduplicated and sorted once)
+        this(new WordStore(words), null, editDistanceLimit, responseLimit, ignoreValidWords, strategy);
+    }
+
+    private Autocorrect(WordStore dictionary, TrigramIndex tokens, int editDistanceLimit, int responseLimit, boolean ignoreValidWords, SearchStrategy strategy) {
         // Save configuration
-        this.editDistanceLimit = editDistanceLimit;
-        this.responseLimit = responseLimit;
-        this.ignoreValidWords = ignoreValidWords;
-        this.tokenizeWords = tokenizeWords;
+        this.defaults = new QueryOptions(editDistanceLimit, responseLimit, ignoreValidWords, strategy);
 
-        // Tokenize Words
-        if (tokenizeWords) {
-            for (String word : dictionary) {
-                addTokenizedWord(word);
-            }
-        }
+        // Keep the trigram index if it was loaded from an index file
+        DictionaryIndex base = new DictionaryIndex(dictionary, tokens, editDistanceLimit);
+        this.snapshot = new Snapshot(base, EMPTY, null);
 
+        // Build the configured strategy's index up front, so the first query doesn't have to
+        base.prepare(strategy);
+    }
+
+    public Autocorrect(String[] words, int editDistanceLimit, int responseLimit, boolean ignoreValidWords, boolean tokenizeWords) {
+        this(words, editDistanceLimit, responseLimit, ignoreValidWords, tokenizeWords ? SearchStrategy.TRIGRAM : SearchStrategy.LINEAR);
     }
 
     /**
@@ -63,9 +97,43 @@ public class Autocorrect {
 
     /**
      * Special constructor for Autowiring.
+     *
+     * @param strategy  The candidate search strategy (autocorrect.strategy property).
+     * @param indexFile The precompiled index of the large dictionary (autocorrect.index-file property). If it's
+     *                  missing or out of date, the text dictionary is loaded instead.
+     * @param parallelThreshold The minimum number of candidates to score in parallel, on every core
+     *                          (autocorrect.parallel-threshold property, 0 to disable).
+     * @param cacheEntries The maximum number of cached results (autocorrect.cache.max-entries property, 0 to
+     *                     disable the cache).
+     * @param cacheBytes   The maximum (estimated) heap used by cached results (autocorrect.cache.max-bytes property).
+     * @param completionSize The number of completions kept per prefix (autocorrect.completion.size property).
+     * @param frequencyFile  The word frequencies completions are ranked by (autocorrect.completion.frequency-file
+     *                       property, see {@link #setCompletions(int, Map)}; empty to rank them by length).
      */
+    @Autowired
+    public Autocorrect(@Value("${autocorrect.strategy:TRIGRAM}") SearchStrategy strategy,
+                       @Value("${autocorrect.index-file:}") String indexFile,
+                       @Value("${autocorrect.parallel-threshold:0}") int parallelThreshold,
+                       @Value("${autocorrect.cache.max-entries:0}") int cacheEntries,
+                       @Value("${autocorrect.cache.max-bytes:16000000}") long cacheBytes,
+                       @Value("${autocorrect.completion.size:10}") int completionSize,
+                       @Value("${autocorrect.completion.frequency-file:}") String frequencyFile) {
+        this(IndexFile.load("large", indexFile.isEmpty() ? null : Path.of(indexFile)), 2, 10, true, strategy);
+        setParallelScoring(parallelThreshold, Runtime.getRuntime().availableProcessors());
+        setResultCache(cacheEntries, cacheBytes);
+        setCompletions(completionSize, frequencyFile.isEmpty() ? null : CompletionIndex.readFrequencies(Path.of(frequencyFile)));
+    }
+
+    Autocorrect(IndexFile index, int editDistanceLimit, int responseLimit, boolean ignoreValidWords, SearchStrategy strategy) {
+        this(index.getDictionary(), index.getTokens(), editDistanceLimit, responseLimit, ignoreValidWords, strategy);
+    }
+
+    public Autocorrect(SearchStrategy strategy) {
+        this(strategy, "", 0, 0, 0, DEFAULT_COMPLETION_SIZE, "");
+    }
+
     public Autocorrect() {
-        this(loadDictionary("large"), 2, 10, true, true);
+        this(SearchStrategy.TRIGRAM);
     }
 
     /**
@@ -86,273 +154,1212 @@ public class Autocorrect {
     }
 
     /**
-     * Calculates the edit distance between two words
-     * Time Complexity: O(n*m) where n is the length of word1 and m is the length of word2.
-     * Space Complexity: Same as time complexity.
+     * Calculates the edit distance between a dictionary word and an already compiled word.
+     * Time Complexity: O(n) for words up to 64 characters (bit-parallel), O(n*k) otherwise (banded),
+     * where n is the length of the dictionary word and k is the edit distance limit.
+     * Space Complexity: O(1), as the DP rows are reused per thread.
      *
-     * @param word1 The first word.
-     * @param word2 The second word.
-     * @return The edit distance between the two words.
+     * @param dictionary The words.
+     * @param id         The ID of the dictionary word.
+     * @param pattern    The second word, compiled once per query.
+     * @param limit      The maximum edit distance.
+     * @return The edit distance between the two words, or Integer.MAX_VALUE if it's greater than the limit.
      */
-    private int editDistance(String word1, String word2) {
-        // Special Case: if either word is empty
-        if (word1.isEmpty()) {
-            return word2.length();
-        } else if (word2.isEmpty()) {
-            return word1.length();
+    static int editDistance(WordStore dictionary, int id, LevenshteinDistance.Pattern pattern, int limit) {
+        // Special case: if either word is empty
+        if (dictionary.length(id) == 0 || pattern.length() == 0) {
+            int distance = Math.max(dictionary.length(id), pattern.length());
+            return distance <= limit ? distance : Integer.MAX_VALUE;
         }
 
-        // Convert both strings to lowercase
-        word1 = word1.toLowerCase();
-        word2 = word2.toLowerCase();
+        return pattern.distance(dictionary.chars(), dictionary.start(id), dictionary.end(id), limit);
+    }
 
-        // Create matrix to store edit distances
-        int[][] editDistances = new int[word1.length() + 1][word2.length() + 1];
+    static class Result {
+        int id;
+        String word;
+        int distance;
 
-        // Fill in the first row and column
-        for (int i = 0; i <= word2.length(); i++) {
-            editDistances[0][i] = i;
+        public Result(int id, int distance) {
+            this.id = id;
+            this.distance = distance;
         }
+    }
 
-        for (int i = 0; i <= word1.length(); i++) {
-            editDistances[i][0] = i;
-        }
+    /**
+     * Returns the top matches for a given word.
+     *
+     * @param word The word to find matches for.
+     * @return A list of the top matches.
+     */
+    public List<Result> getTopResults(String word) {
+        return getTopResults(word, null);
+    }
 
-        // Finish filling in the matrix
-        for (int i = 1; i <= word1.length(); i++) {
-            int min = Integer.MAX_VALUE;
-            for (int j = 1; j <= word2.length(); j++) {
+    /**
+     * Returns the top matches for a given word, recording how much work the search did.
+     *
+     * @param word  The word to find matches for.
+     * @param stats Counters to update (may be null).
+     * @return A list of the top matches.
+     */
+    public List<Result> getTopResults(String word, SearchStats stats) {
+        return getTopResults(word, defaults, stats);
+    }
 
-                // Check if the characters are the same
-                if (word1.charAt(i - 1) == word2.charAt(j - 1)) {
-                    editDistances[i][j] = editDistances[i - 1][j - 1];
-                } else {
-                    // Find the minimum of the three possible operations
-                    int insert = editDistances[i][j - 1] + 1;
-                    int delete = editDistances[i - 1][j] + 1;
-                    int replace = editDistances[i - 1][j - 1] + 1;
-                    editDistances[i][j] = Math.min(insert, Math.min(delete, replace));
-                }
-                min = Math.min(min, editDistances[i][j]);
-            }
+    /**
+     * Returns the top matches for a given word, with the options of this query.
+     *
+     * @param word    The word to find matches for.
+     * @param options The settings of this query (the instance's own aren't changed).
+     * @param stats   Counters to update (may be null).
+     * @return A list of the top matches, or null if the word is valid and valid words are ignored.
+     */
+    public List<Result> getTopResults(String word, QueryOptions options, SearchStats stats) {
+        // Normalize the word the same way the dictionary was
+        word = WordStore.normalize(word);
+        Snapshot snapshot = this.snapshot;
+        QueryMetrics metrics = queryMetrics;
+        QueryTrace trace = metrics == null ? null : traces.get().start(word, options);
 
-            // Early exit if the minimum edit distance is greater than the limit
-            if (min > editDistanceLimit) {
-                return Integer.MAX_VALUE;
+        // Exit early if the word exists
+        if (options.getIgnoreValidWords() && snapshot.contains(word)) {
+            if (trace != null) {
+                trace.lap(QueryTrace.Stage.VALIDATION);
+                trace.setValid(true);
+                metrics.record(trace);
             }
+            return null;
+        }
+        if (trace != null) {
+            trace.lap(QueryTrace.Stage.VALIDATION);
         }
 
-        // Return the edit distance
-        return editDistances[word1.length()][word2.length()] > editDistanceLimit ? Integer.MAX_VALUE : editDistances[word1.length()][word2.length()];
-    }
+        // Let the planner pick the strategy (see QueryPlanner)
+        if (options.getStrategy() == SearchStrategy.AUTO) {
+            options = options.withStrategy(snapshot.base.planner().plan(word, options.getEditDistanceLimit()).getStrategy());
+            if (trace != null) {
+                trace.setStrategy(options.getStrategy());
+            }
+        }
 
-    private static class Result {
-        String word;
-        int distance;
+        // Search the base dictionary (keeping enough extra matches to make up for the removed words)
+        TopKSelector top = selectors.get();
+        top.reset(snapshot.baseLimit(options.getResponseLimit()));
+        search(snapshot.base, word, options, top, stats, trace);
 
-        public Result(String word, int distance) {
-            this.word = word;
-            this.distance = distance;
+        // Return top matches (with the added words)
+        top.sort();
+        List<Result> results = snapshot.results(top, word, options);
+        if (trace != null) {
+            trace.lap(QueryTrace.Stage.SELECTION);
+            metrics.record(trace);
         }
+        return results;
     }
 
-    private static final Comparator<Result> resultComparator = (r1, r2) -> {
-        if (r1.distance == r2.distance) {
-            return r1.word.compareTo(r2.word);
+    /**
+     * Plans a query and runs it, to compare the estimated candidate count of the strategy it used with the
+     * actual one. AUTO runs the planner's choice, and other strategies run as configured (their index is built
+     * first, so they're estimated too). Valid words are searched as well, and the result cache isn't used.
+     *
+     * @param word    The word to find matches for.
+     * @param options The settings of the query.
+     * @return The plan, with the estimates of every strategy whose index is built, and the actual count.
+     */
+    public QueryPlan explain(String word, QueryOptions options) {
+        word = WordStore.normalize(word);
+        DictionaryIndex base = snapshot.base;
+        base.prepare(options.getStrategy());
+        QueryPlan plan = base.planner().plan(word, options.getEditDistanceLimit());
+        if (options.getStrategy() != SearchStrategy.AUTO) {
+            plan.choose(options.getStrategy());
         }
-        return r1.distance - r2.distance;
-    };
+
+        // Run it (stats count the words scored, or the nodes visited by the tree walks)
+        TopKSelector top = selectors.get();
+        top.reset(options.getResponseLimit());
+        SearchStats stats = new SearchStats();
+        long start = System.nanoTime();
+        search(base, word, options.withStrategy(plan.getStrategy()), top, stats, null);
+        plan.setActual(stats.getVisited(), System.nanoTime() - start);
+        return plan;
+    }
 
     /**
-     * Returns the top matches for a given word.
+     * Finds the top matches in a base dictionary.
      *
-     * @param word The word to find matches for.
-     * @return A list of the top matches.
+     * @param base    The dictionary and its indexes.
+     * @param word    The (normalized) word to find matches for.
+     * @param options The settings of this query.
+     * @param top     Receives the matches (IDs are in alphabetical order, so they break ties without
+     *                comparing Strings).
+     * @param stats   Counters to update (may be null).
+     * @param trace   Receives the timings and counts of each stage (null if metrics are disabled).
      */
-    public List<Result> getTopResults(String word) {
-        // Exit early if the word exists
-        if (ignoreValidWords && dictionary.contains(word)) {
-            return null;
+    private void search(DictionaryIndex base, String word, QueryOptions options, TopKSelector top, SearchStats stats,
+                        QueryTrace trace) {
+        WordStore dictionary = base.words();
+        int editDistanceLimit = options.getEditDistanceLimit();
+        MatchCollector collector = top::offer;
+
+        // The tree walks only count their work through stats, so traced queries always pass some
+        long visitedBefore = 0;
+        if (trace != null) {
+            if (stats == null) {
+                stats = trace.stats;
+            }
+            visitedBefore = stats.getVisited();
         }
 
-        // Store top words
-        PriorityQueue<Result> pq = new PriorityQueue<>(10, resultComparator);
+        SearchStrategy strategy = options.getStrategy();
+        if (strategy == SearchStrategy.BK_TREE) {
+            // Only visit the subtrees which can contain matches
+            base.getBKTree().search(word, editDistanceLimit, stats, collector);
+        } else if (strategy == SearchStrategy.DAWG && Dawg.supports(word)) {
+            // Only follow the paths the Levenshtein automaton accepts
+            base.getDawg().search(word, editDistanceLimit, stats, collector);
+        } else if (strategy == SearchStrategy.TRIE) {
+            // Score shared prefixes once, skipping subtrees over the limit
+            base.getTrie().search(word, editDistanceLimit, stats, collector);
+        } else {
+            // Go through all potential words in the dictionary (or the whole length window, read in place)
+            IdList potentialWords = candidateLists.get();
+            potentialWords.clear();
+            boolean narrowed = getPotentialWords(base, word, options, potentialWords);
+            int windowStart = dictionary.lengthStart(word.length() - editDistanceLimit);
+            int windowSize = dictionary.lengthEnd(word.length() + editDistanceLimit) - windowStart;
+            int count = narrowed ? potentialWords.size() : windowSize;
+            if (trace != null) {
+                trace.lap(QueryTrace.Stage.CANDIDATES);
+                trace.setCandidates(count, Math.max(0, windowSize - count));
+            }
+            LevenshteinDistance.Pattern pattern = LevenshteinDistance.compile(word);
+            int matches;
+            ScoringPool pool = scoringPool;
+            if (pool != null && count >= pool.threshold && pool.acquire()) {
+                // Split the candidates across the pool, each worker keeping its own top results
+                try {
+                    ScoringTask task = new ScoringTask(dictionary, narrowed ? potentialWords : null, windowStart, 0, count,
+                            pattern, editDistanceLimit, top.capacity(), Math.max(1, count / (pool.pool.getParallelism() * 4)),
+                            new AtomicInteger(editDistanceLimit));
+                    TopKSelector merged = pool.pool.invoke(task);
+                    top.merge(merged);
+                    matches = task.matches;
+                } finally {
+                    pool.release();
+                }
+            } else {
+                // (including when the pool was replaced, and shut down, since it was read)
+                matches = score(dictionary, narrowed ? potentialWords : null, windowStart, 0, count, pattern,
+                        editDistanceLimit, top, null);
+            }
 
-        // Go through all words in the dictionary
-        for (String dictionaryWord : getPotentialWords(word)) {
-            pq.add(new Result(dictionaryWord, editDistance(dictionaryWord, word)));
+            if (stats != null) {
+                stats.addVisited(count);
+                stats.addScored(count);
+                stats.addMatches(matches);
+            }
+            if (trace != null) {
+                trace.lap(QueryTrace.Stage.SCORING);
+            }
+            return;
         }
 
-        // Return top matches
-        List<Result> results = new ArrayList<>();
-        while (!pq.isEmpty()) {
-            // Break if we have enough results
-            if (results.size() >= responseLimit) {
-                break;
-            }
+        // The tree walks find and score their candidates in one go
+        if (trace != null) {
+            trace.lap(QueryTrace.Stage.SCORING);
+            trace.setCandidates(stats.getVisited() - visitedBefore, -1);
+        }
+    }
+
+    /**
+     * Scores a range of candidates.
+     *
+     * @param dictionary  The words.
+     * @param candidates  The candidate IDs, or null to score the length window in place.
+     * @param windowStart The first position (in length order) of the length window.
+     * @param from        The first candidate to score.
+     * @param to          The candidate after the last one to score.
+     * @param pattern     The compiled typed word.
+     * @param limit       The maximum edit distance.
+     * @param top         Receives the matches.
+     * @param sharedLimit  The limit shared by the workers scoring the other ranges (null if there are none).
+     * @return The number of candidates within the limit.
+     */
+    private int score(WordStore dictionary, IdList candidates, int windowStart, int from, int to,
+                      LevenshteinDistance.Pattern pattern, int limit, TopKSelector top, AtomicInteger sharedLimit) {
+        int matches = 0;
+        for (int i = from; i < to; i++) {
+            int id = candidates != null ? candidates.get(i) : dictionary.idAt(windowStart + i);
 
-            // Get the next result
-            Result result = pq.poll();
+            // Once there are enough results (here, or in any other worker), only words at most as far as the
+            // worst one can get in
+            if (sharedLimit != null) {
+                limit = Math.min(limit, sharedLimit.get());
+            }
+            int distance = editDistance(dictionary, id, pattern, top.limit(limit));
+            if (distance == Integer.MAX_VALUE) {
+                continue;
+            }
+            top.offer(id, distance);
+            matches++;
 
-            // Break if the edit distance is greater than the limit
-            if (result.distance == Integer.MAX_VALUE) {
-                break;
+            // Share this worker's limit once it's tighter
+            if (sharedLimit != null && top.limit(limit) < limit) {
+                limit = top.limit(limit);
+                sharedLimit.accumulateAndGet(limit, Math::min);
             }
+        }
+        return matches;
+    }
 
-            results.add(result);
+    /**
+     * Scores a range of candidates on the scoring pool, splitting it in halves down to a minimum size.
+     */
+    private class ScoringTask extends RecursiveTask<TopKSelector> {
+        private static final long serialVersionUID = 1L;
+
+        private final WordStore dictionary;
+        private final IdList candidates;
+        private final int windowStart;
+        private final int from;
+        private final int to;
+        private final LevenshteinDistance.Pattern pattern;
+        private final int limit;
+        private final int responseLimit;
+        private final int grain;
+        private final AtomicInteger sharedLimit;
+        private int matches;
+
+        ScoringTask(WordStore dictionary, IdList candidates, int windowStart, int from, int to,
+                    LevenshteinDistance.Pattern pattern, int limit, int responseLimit, int grain, AtomicInteger sharedLimit) {
+            this.dictionary = dictionary;
+            this.candidates = candidates;
+            this.windowStart = windowStart;
+            this.from = from;
+            this.to = to;
+            this.pattern = pattern;
+            this.limit = limit;
+            this.responseLimit = responseLimit;
+            this.grain = grain;
+            this.sharedLimit = sharedLimit;
         }
 
-        return results;
+        @Override
+        protected TopKSelector compute() {
+            if (to - from <= grain) {
+                TopKSelector top = new TopKSelector();
+                top.reset(responseLimit);
+                matches = score(dictionary, candidates, windowStart, from, to, pattern, limit, top, sharedLimit);
+                return top;
+            }
+
+            int middle = (from + to) >>> 1;
+            ScoringTask left = new ScoringTask(dictionary, candidates, windowStart, from, middle, pattern, limit,
+                    responseLimit, grain, sharedLimit);
+            ScoringTask right = new ScoringTask(dictionary, candidates, windowStart, middle, to, pattern, limit,
+                    responseLimit, grain, sharedLimit);
+            // Keep scoring in order here (the first words are the shortest, which tighten the limit soonest)
+            right.fork();
+            TopKSelector top = left.compute();
+            top.merge(right.join());
+            matches = left.matches + right.matches;
+            return top;
+        }
     }
 
     public List<String> getTopStrings(String word) {
-        List<Result> results = getTopResults(word);
+        return getTopStrings(word, defaults);
+    }
+
+    /**
+     * Returns the suggestions for a word if they're known without searching: null if it's valid (and valid words
+     * are ignored), or its cached result.
+     *
+     * @return The suggestions, or {@link SuggestionCache#ABSENT} if the word has to be searched for.
+     */
+    List<String> getKnownStrings(String word, QueryOptions options) {
+        String normalized = WordStore.normalize(word);
+        if (options.getIgnoreValidWords() && snapshot.contains(normalized)) {
+            return null;
+        }
+        SuggestionCache cache = resultCache;
+        return cache == null ? SuggestionCache.ABSENT : cache.get(new SuggestionCache.Key(normalized, options));
+    }
+
+    /**
+     * Returns the top suggestions for a given word, with the options of this query. If the result cache is
+     * enabled, a repeated query is answered from it.
+     *
+     * @return The suggestions (unmodifiable), or null if the word is valid and valid words are ignored.
+     */
+    public List<String> getTopStrings(String word, QueryOptions options) {
+        SuggestionCache cache = resultCache;
+        if (cache == null) {
+            return computeTopStrings(word, options);
+        }
+
+        // Check the cache (the generation is read first, so a result computed before an invalidation isn't kept)
+        SuggestionCache.Key key = new SuggestionCache.Key(WordStore.normalize(word), options);
+        int generation = cache.generation();
+        List<String> cached = cache.get(key);
+        if (cached != SuggestionCache.ABSENT) {
+            return cached;
+        }
+
+        List<String> matches = computeTopStrings(key.word, options);
+        cache.put(key, matches, generation);
+        return matches;
+    }
+
+    private List<String> computeTopStrings(String word, QueryOptions options) {
+        List<Result> results = getTopResults(word, options, null);
         if (results == null) {
             return null;
         }
-        List<String> matches = new ArrayList<>();
+        List<String> matches = new ArrayList<>(results.size());
         for (Result result : results) {
             matches.add(result.word);
         }
-        return matches;
+        return Collections.unmodifiableList(matches);
+    }
+
+    public List<String> getCompletions(String prefix) {
+        return getCompletions(prefix, completionSize, false);
     }
 
     /**
-     * Debug function to print the 2D array of edit distances.
+     * Completes a word which is being typed (typeahead): returns the best dictionary words starting with the
+     * typed prefix, ranked by frequency, then length (see {@link CompletionIndex}). Each prefix's completions are
+     * precomputed, so this only walks the prefix's characters. The index is built on the first call.
      *
-     * @param arr   The array to print
-     * @param word1 The first word
-     * @param word2 The second word
+     * @param prefix The typed prefix.
+     * @param limit  The maximum number of completions (at most the completion size, see
+     *               {@link #setCompletions(int, Map)}).
+     * @param fuzzy  Whether to fall back to prefixes within edit distance 1 of the typed one, if it has fewer
+     *               completions than the limit (they're listed after its own).
+     * @return The completions, best first.
      */
-    private void print2DArray(int[][] arr, String word1, String word2) {
-        System.out.println("Edit distance between " + word1 + " and " + word2 + ":");
+    public List<String> getCompletions(String prefix, int limit, boolean fuzzy) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1!");
+        }
+        prefix = WordStore.normalize(prefix);
+        Snapshot snapshot = this.snapshot;
+        CompletionIndex index = snapshot.base.getCompletionIndex(completionSize, wordFrequencies);
+        limit = Math.min(limit, index.size());
+
+        // Look the prefix up in the base (keeping enough extra completions to make up for the removed words)
+        TopKSelector top = selectors.get();
+        top.reset(snapshot.baseLimit(limit));
+        index.complete(prefix, fuzzy, top);
+
+        // Return the best completions (with the added words)
+        top.sort();
+        return snapshot.completions(top, index, prefix, fuzzy, limit);
+    }
 
-        // Print the top row (word2 characters)
-        System.out.print("    ");
-        for (int j = 0; j < word2.length(); j++) {
-            System.out.print(" " + word2.charAt(j) + " ");
+    /**
+     * Configures completions (the index is rebuilt on the next one).
+     *
+     * @param size        The number of completions kept per prefix (the most a completion can return).
+     * @param frequencies The frequency of each (normalized) word, e.g. its count in a corpus, to rank completions
+     *                    by (null to rank them by length, then alphabetically). Words without one count as 0.
+     */
+    public void setCompletions(int size, Map<String, Long> frequencies) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Completion size must be at least 1!");
         }
-        System.out.println();
+        completionSize = size;
+        wordFrequencies = frequencies;
+    }
 
-        // Print the matrix with word1 characters on the side
-        for (int i = 0; i < arr.length; i++) {
-            if (i > 0) {
-                System.out.print(word1.charAt(i - 1) + " ");
-            } else {
-                System.out.print("  ");
+    public int getCompletionSize() {
+        return completionSize;
+    }
+
+    /**
+     * Starts an incremental search, for a word which is being typed: each update only redoes the work for the
+     * characters which changed since the last one (see {@link TypingSession}). Sessions search the trie,
+     * whatever the strategy (it's built here if it wasn't already, rather than on the first keystroke).
+     */
+    public TypingSession newTypingSession() {
+        snapshot.base.prepare(SearchStrategy.TRIE);
+        return new TypingSession(this);
+    }
+
+    /**
+     * Corrects a whole document: the text is split into words (letters, with apostrophes inside words), words
+     * found in the dictionary are skipped, and each distinct misspelling is only corrected once. The misspellings
+     * are corrected in parallel on the scoring pool if parallel scoring is enabled (see
+     * {@link #setParallelScoring(int, int)}), or else one after the other on the calling thread.
+     *
+     * @param text The document.
+     * @return The misspelled words, in order, with their offsets in the text and their suggestions.
+     */
+    public List<Correction> correctText(CharSequence text) {
+        return correctText(text, defaults);
+    }
+
+    /**
+     * Corrects a whole document with the options of this request (see {@link #correctText(CharSequence)}).
+     * Dictionary words are always skipped.
+     */
+    public List<Correction> correctText(CharSequence text, QueryOptions options) {
+        return correctText(text, tokenize(text), options, true);
+    }
+
+    /**
+     * Corrects a document which was already tokenized (see {@link #tokenize(CharSequence)}).
+     *
+     * @param parallel Whether to correct the misspellings on the scoring pool (if it's enabled), rather than on
+     *                 the calling thread (for callers which already correct several documents in parallel).
+     */
+    List<Correction> correctText(CharSequence text, IdList bounds, QueryOptions options, boolean parallel) {
+        return correct(words(text, bounds), bounds, options, parallel, new HashMap<>());
+    }
+
+    private static List<String> words(CharSequence text, IdList bounds) {
+        List<String> words = new ArrayList<>(bounds.size() / 2);
+        for (int t = 0; t < bounds.size(); t += 2) {
+            words.add(text.subSequence(bounds.get(t), bounds.get(t + 1)).toString());
+        }
+        return words;
+    }
+
+    /**
+     * Splits a text into words: runs of letters, with apostrophes between letters (e.g. "don't").
+     *
+     * @return The start and end offsets of each word, in pairs.
+     */
+    static IdList tokenize(CharSequence text) {
+        IdList bounds = new IdList();
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetter(text.charAt(i))) {
+                i++;
+                continue;
             }
-            for (int j = 0; j < arr[i].length; j++) {
-                System.out.print(arr[i][j] + " ");
+            int start = i;
+            while (i < text.length() && (Character.isLetter(text.charAt(i)) || (text.charAt(i) == '\''
+                    && i + 1 < text.length() && Character.isLetter(text.charAt(i + 1))))) {
+                i++;
             }
-            System.out.println();
+            bounds.add(start);
+            bounds.add(i);
         }
+        return bounds;
     }
 
     /**
-     * Loads a dictionary of words from the provided textfiles in the dictionaries directory.
-     * @param dictionary The name of the textfile, [dictionary].txt, in the dictionaries directory.
-     * @return An array of Strings containing all words in alphabetical order.
+     * Corrects a whole document, read from a stream (see {@link #correctText(CharSequence)}). The stream is
+     * corrected in blocks which end at word boundaries, so only one block of its text is in memory at a time
+     * (along with the corrections, and the suggestions for each distinct misspelling).
      */
-    private static String[] loadDictionary(String dictionary)  {
+    public List<Correction> correctText(Reader reader) {
+        List<Correction> corrections = new ArrayList<>();
+        Map<String, List<String>> corrected = new HashMap<>();
+        char[] buffer = new char[READ_BLOCK_SIZE];
+        int length = 0;
+        int offset = 0;
         try {
-            String line;
-            Resource dictionaryResource = new ClassPathResource("dictionaries/" + dictionary + ".txt");
-            BufferedReader dictReader = new BufferedReader(new InputStreamReader(dictionaryResource.getInputStream()));
-            line = dictReader.readLine();
+            boolean done = false;
+            while (!done) {
+                // Fill the block
+                int read = reader.read(buffer, length, buffer.length - length);
+                done = read < 0;
+                if (!done) {
+                    length += read;
+                    if (length < buffer.length) {
+                        continue;
+                    }
+                }
 
-            // Update instance variables with test data
-            int n = Integer.parseInt(line);
-            String[] words = new String[n];
+                // Correct it up to its last word boundary (the rest starts the next block)
+                int end = done ? length : lastBoundary(buffer, length);
+                if (end == 0) {
+                    // A single word fills the whole block: make room for the rest of it
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    continue;
+                }
+                CharBuffer block = CharBuffer.wrap(buffer, 0, end);
+                IdList bounds = tokenize(block);
+                for (Correction correction : correct(words(block, bounds), bounds, defaults, true, corrected)) {
+                    corrections.add(new Correction(correction.getWord(), offset + correction.getStart(),
+                            offset + correction.getEnd(), correction.getSuggestions()));
+                }
+                System.arraycopy(buffer, end, buffer, 0, length - end);
+                length -= end;
+                offset = Math.addExact(offset, end);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return corrections;
+    }
 
-            for (int i = 0; i < n; i++) {
-                line = dictReader.readLine();
-                words[i] = line;
+    /**
+     * Returns the offset after the last character of a block which can't be part of a word (0 if there's none).
+     */
+    private static int lastBoundary(char[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (!Character.isLetter(buffer[i]) && buffer[i] != '\'') {
+                return i + 1;
             }
-            return words;
         }
-        catch (IOException e) {
-            throw new RuntimeException(e);
+        return 0;
+    }
+
+    /**
+     * Corrects a document which was already split into words. Words found in the dictionary are skipped, and
+     * each distinct misspelling is only corrected once (in parallel on the scoring pool, if it's enabled).
+     *
+     * @param tokens The words of the document.
+     * @return The misspelled words, in order, with their indexes and their suggestions.
+     */
+    public List<Correction> correctTokens(List<String> tokens) {
+        return correctTokens(tokens, defaults);
+    }
+
+    /**
+     * Corrects a document which was already split into words, with the options of this request (see
+     * {@link #correctTokens(List)}).
+     */
+    public List<Correction> correctTokens(List<String> tokens, QueryOptions options) {
+        IdList bounds = new IdList(tokens.size() * 2);
+        for (int t = 0; t < tokens.size(); t++) {
+            bounds.add(t);
+            bounds.add(t + 1);
         }
+        return correct(tokens, bounds, options, true, new HashMap<>());
     }
 
-    // Functions for tokenization
-    private List<String> getPotentialWords(String word) {
-        Set<String> words = new HashSet<>();
+    /**
+     * Corrects a list of words.
+     *
+     * @param corrected The suggestions for the misspellings which were already corrected (e.g. in the previous
+     *                  blocks of a stream), which the new ones are added to.
+     */
+    private List<Correction> correct(List<String> words, IdList bounds, QueryOptions options, boolean parallel,
+                                     Map<String, List<String>> corrected) {
+        // Find the distinct misspellings which weren't corrected yet (in order of first appearance)
+        Snapshot snapshot = this.snapshot;
+        Set<String> misspellings = new LinkedHashSet<>();
+        for (String word : words) {
+            String normalized = WordStore.normalize(word);
+            if (!normalized.isEmpty() && !corrected.containsKey(normalized) && !snapshot.contains(normalized)) {
+                misspellings.add(normalized);
+            }
+        }
 
-        if (word.length() >= (tokenSize + 1) && tokenizeWords) {
-            // Tokenize word
-            List<String> wordTokens = tokenizeWord(word);
+        // Correct each one once, on the scoring pool if it's enabled (so documents never use more threads than
+        // it has), or else on this thread
+        List<String> unique = new ArrayList<>(misspellings);
+        List<List<String>> suggestions = new ArrayList<>(unique.size());
+        ScoringPool pool = scoringPool;
+        if (parallel && unique.size() > 1 && pool != null && pool.acquire()) {
+            try {
+                List<ForkJoinTask<List<String>>> tasks = new ArrayList<>(unique.size());
+                for (String word : unique) {
+                    tasks.add(ForkJoinTask.adapt(() -> getSuggestions(word, options)));
+                }
+                pool.pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+                for (ForkJoinTask<List<String>> task : tasks) {
+                    suggestions.add(task.join());
+                }
+            } finally {
+                pool.release();
+            }
+        } else {
+            for (String word : unique) {
+                suggestions.add(getSuggestions(word, options));
+            }
+        }
+
+        for (int i = 0; i < unique.size(); i++) {
+            corrected.put(unique.get(i), suggestions.get(i));
+        }
 
-            // Get compatible words
-            for (String token : wordTokens) {
-                words.addAll(tokens.getOrDefault(token, new ArrayList<>()));
+        // Report every occurrence
+        List<Correction> corrections = new ArrayList<>();
+        for (int t = 0; t < words.size(); t++) {
+            List<String> wordSuggestions = corrected.get(WordStore.normalize(words.get(t)));
+            if (wordSuggestions != null) {
+                corrections.add(new Correction(words.get(t), bounds.get(t * 2), bounds.get(t * 2 + 1), wordSuggestions));
             }
         }
+        return corrections;
+    }
+
+    private List<String> getSuggestions(String word, QueryOptions options) {
+        List<String> suggestions = getTopStrings(word, options);
+        return suggestions == null ? List.of() : suggestions;
+    }
+
+    // Functions for tokenization
+    /**
+     * Finds the candidate words with the configured index.
+     *
+     * @param base    The dictionary and its indexes.
+     * @param word    The (normalized) typed word.
+     * @param options The settings of the query.
+     * @param words   Receives the IDs of the candidates.
+     * @return False if every word in the length window has to be scored instead.
+     */
+    boolean getPotentialWords(DictionaryIndex base, String word, QueryOptions options, IdList words) {
+        int editDistanceLimit = options.getEditDistanceLimit();
+        SearchStrategy strategy = options.getStrategy();
 
-        // If tokens not valid, add all words
-        if (words.isEmpty()) {
-            words.addAll(dictionary);
+        // Use the delete index (unless the edit distance was raised past what it was built for)
+        if (strategy == SearchStrategy.SYMSPELL) {
+            SymSpellIndex deletes = base.getSymSpellIndex();
+            if (deletes.supports(editDistanceLimit)) {
+                deletes.getPotentialWords(word, editDistanceLimit, words);
+                return true;
+            }
         }
 
-        // Filter by size (must be within edit distance)
-        words.removeIf(w -> Math.abs(w.length() - word.length()) > editDistanceLimit);
+        // Use the words sharing enough trigrams with this one
+        if (strategy == SearchStrategy.TRIGRAM && base.getTrigramIndex().getPotentialWords(word, editDistanceLimit, words)) {
+            return true;
+        }
 
-        // Return words
-        return new ArrayList<>(words);
+        // If tokens can't rule anything out, all words within edit distance based on size are candidates
+        return false;
     }
 
-    private void addTokenizedWord(String word) {
-        // Check if word can be tokenized
-        if (word.length() < (tokenSize + 1)) {
-            return;
+    /**
+     * Reports the (approximate) heap used by the dictionary and the candidate indexes, comparing the
+     * delete index, the dictionary automaton and the trie with the trigram index at the configured edit
+     * distance. Indexes which aren't in use are built just for the report.
+     *
+     * @return A human-readable report.
+     */
+    public String getIndexMemoryReport() {
+        int editDistanceLimit = defaults.getEditDistanceLimit();
+        DictionaryIndex base = snapshot.base;
+        WordStore dictionary = base.words();
+
+        // Trigram index
+        TrigramIndex tokens = base.builtTrigramIndex();
+        TrigramIndex trigrams = tokens == null ? new TrigramIndex(dictionary) : tokens;
+
+        // Delete index
+        SymSpellIndex deletes = base.builtSymSpellIndex();
+        if (deletes == null || deletes.getMaxDistance() != editDistanceLimit) {
+            deletes = new SymSpellIndex(dictionary, editDistanceLimit);
         }
 
-        // Add tokens
-        addTokens(word, tokenizeWord(word));
+        // Dictionary automaton
+        Dawg dawg = base.builtDawg();
+        Dawg automaton = dawg == null ? new Dawg(dictionary) : dawg;
+
+        // Trie
+        DictionaryTrie trie = base.builtTrie();
+        DictionaryTrie prefixTrie = trie == null ? new DictionaryTrie(dictionary) : trie;
+
+        // Completion index
+        CompletionIndex completions = base.getCompletionIndex(completionSize, wordFrequencies);
+
+        return String.format("Dictionary: %.1f MB (%d words)%n", dictionary.estimatedBytes() / 1e6, dictionary.size())
+                + String.format("Trigram index: %.1f MB (%d keys, %d postings)%n", trigrams.estimatedBytes() / 1e6,
+                trigrams.getKeyCount(), trigrams.getPostingCount())
+                + String.format("Delete index (distance %d): %.1f MB (%d keys, %d postings)%n", editDistanceLimit,
+                deletes.estimatedBytes() / 1e6, deletes.getKeyCount(), deletes.getPostingCount())
+                + String.format("Dictionary automaton: %.1f MB (%d states, %d edges)%n", automaton.estimatedBytes() / 1e6,
+                automaton.getStateCount(), automaton.getEdgeCount())
+                + String.format("Trie: %.1f MB (%d nodes)%n", prefixTrie.estimatedBytes() / 1e6, prefixTrie.getNodeCount())
+                + String.format("Completion index (%d per prefix): %.1f MB (%d nodes, %d completions)%n",
+                completions.size(), completions.estimatedBytes() / 1e6, completions.getNodeCount(),
+                completions.getCompletionCount());
+    }
+
+    // Live updates
+
+    /**
+     * Adds a word to the dictionary. It's suggested (and valid) from the next query on.
+     *
+     * @return False if the dictionary already had it.
+     */
+    public boolean addWord(String word) {
+        return update(List.of(word), List.of()) > 0;
+    }
+
+    /**
+     * Removes a word from the dictionary. It isn't suggested (or valid) from the next query on.
+     *
+     * @return False if the dictionary didn't have it.
+     */
+    public boolean removeWord(String word) {
+        return update(List.of(), List.of(word)) > 0;
     }
 
-    private List<String> tokenizeWord(String word) {
-        List<String> tokens = new ArrayList<>();
+    /**
+     * Adds many words at once (a domain vocabulary, for example), publishing them all together.
+     *
+     * @return The number of words which weren't in the dictionary yet.
+     */
+    public int addWords(Collection<String> words) {
+        return update(words, List.of());
+    }
 
-        for (int i = 0; i < word.length() - tokenSize; i++) {
-            String token = word.substring(i, i + tokenSize);
-            tokens.add(token);
+    /**
+     * Removes many words at once, publishing the removal all together.
+     *
+     * @return The number of words which were in the dictionary.
+     */
+    public int removeWords(Collection<String> words) {
+        return update(List.of(), words);
+    }
+
+    /**
+     * Applies additions and removals to a copy of the current snapshot's changes, then publishes it. The base
+     * dictionary and its indexes aren't touched: added words are kept in a small store of their own, and
+     * removed ones are masked out. Once there are enough changes, a new base is built in the background.
+     *
+     * @return The number of words which were actually added or removed.
+     */
+    private int update(Collection<String> additions, Collection<String> removals) {
+        synchronized (mutationLock) {
+            Snapshot current = snapshot;
+            WordStore baseWords = current.base.words();
+            Set<String> added = new HashSet<>();
+            for (String word : current.added) {
+                added.add(word);
+            }
+            BitSet removed = current.removed == null ? new BitSet(baseWords.size()) : (BitSet) current.removed.clone();
+
+            int changes = 0;
+            for (String word : additions) {
+                String normalized = WordStore.normalize(word);
+                int id = baseWords.indexOf(normalized);
+                if (id >= 0 ? removed.get(id) : !normalized.isEmpty() && !added.contains(normalized)) {
+                    if (id >= 0) {
+                        removed.clear(id);
+                    } else {
+                        added.add(normalized);
+                    }
+                    changes++;
+                }
+            }
+            for (String word : removals) {
+                String normalized = WordStore.normalize(word);
+                int id = baseWords.indexOf(normalized);
+                if (id >= 0 ? !removed.get(id) : added.remove(normalized)) {
+                    if (id >= 0) {
+                        removed.set(id);
+                    }
+                    changes++;
+                }
+            }
+            if (changes == 0) {
+                return 0;
+            }
+
+            // Publish, then drop the results cached for the old dictionary
+            snapshot = new Snapshot(current.base, added.isEmpty() ? EMPTY : new WordStore(added.toArray(new String[0])),
+                    removed.isEmpty() ? null : removed);
+            invalidateResultCache();
+
+            // Merge the changes into a new base once scanning them costs more than a fraction of a query
+            if (!compacting && snapshot.changeCount() >= compactionThreshold(current.base)) {
+                compacting = true;
+                compactor().execute(this::compactInBackground);
+            }
+            return changes;
         }
+    }
+
+    /**
+     * Merges the added and removed words into a new base dictionary (and builds its indexes) now. Queries keep
+     * using the current snapshot until the new one is published.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            Snapshot from = snapshot;
+            if (from.changeCount() == 0) {
+                return;
+            }
 
-        return tokens;
+            // Build the new base (the slow part) without blocking mutations
+            DictionaryIndex base = new DictionaryIndex(new WordStore(from.words()), null, defaults.getEditDistanceLimit());
+            base.prepare(defaults.getStrategy());
+            if (defaults.getStrategy() == SearchStrategy.AUTO) {
+                // Keep every index the planner could pick from
+                for (SearchStrategy strategy : SearchStrategy.values()) {
+                    if (from.base.isBuilt(strategy)) {
+                        base.prepare(strategy);
+                    }
+                }
+            }
+            if (from.base.builtCompletionIndex() != null) {
+                base.getCompletionIndex(completionSize, wordFrequencies);
+            }
+
+            // Publish it, with whatever changed since (the words themselves don't change, so cached results stay valid)
+            synchronized (mutationLock) {
+                snapshot = rebase(base, from, snapshot);
+            }
+        }
     }
 
-    private void addTokens(String word, List<String> newTokens) {
-        for (String token : newTokens) {
-            tokens.computeIfAbsent(token, k -> new ArrayList<>());
+    private void compactInBackground() {
+        try {
+            compact();
+        } finally {
+            synchronized (mutationLock) {
+                compacting = false;
+            }
+        }
+    }
 
-            // Add token
-            tokens.get(token).add(word);
+    /**
+     * Expresses a snapshot's words as changes to a new base, which was built from an older snapshot (with the
+     * same base). Only words which were added or removed in either snapshot can differ.
+     */
+    private static Snapshot rebase(DictionaryIndex base, Snapshot from, Snapshot current) {
+        WordStore oldWords = from.base.words();
+        WordStore newWords = base.words();
+        Set<String> changed = new HashSet<>();
+        for (Snapshot snapshot : new Snapshot[]{from, current}) {
+            for (String word : snapshot.added) {
+                changed.add(word);
+            }
+            if (snapshot.removed != null) {
+                for (int id = snapshot.removed.nextSetBit(0); id >= 0; id = snapshot.removed.nextSetBit(id + 1)) {
+                    changed.add(oldWords.word(id));
+                }
+            }
+        }
+
+        List<String> added = new ArrayList<>();
+        BitSet removed = new BitSet(newWords.size());
+        for (String word : changed) {
+            int id = newWords.indexOf(word);
+            boolean present = current.contains(word);
+            if (present && id < 0) {
+                added.add(word);
+            } else if (!present && id >= 0) {
+                removed.set(id);
+            }
         }
+        return new Snapshot(base, added.isEmpty() ? EMPTY : new WordStore(added.toArray(new String[0])),
+                removed.isEmpty() ? null : removed);
     }
 
-    // Setters / Getters for configuration
-    public void setMaxEditDistance(int maxEditDistance) {
-        this.editDistanceLimit = maxEditDistance;
+    private static int compactionThreshold(DictionaryIndex base) {
+        return Math.max(MIN_COMPACTION_CHANGES, base.words().size() / 64);
     }
 
-    public int getMaxEditDistance() {
-        return editDistanceLimit;
+    private ExecutorService compactor() {
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "autocorrect-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return compactor;
     }
 
-    public void setIgnoreValidWords(boolean ignoreValidWords) {
-        this.ignoreValidWords = ignoreValidWords;
+    /**
+     * Returns the number of words in the dictionary.
+     */
+    public int getDictionarySize() {
+        return snapshot.size();
     }
 
-    public boolean getIgnoreValidWords() {
-        return ignoreValidWords;
+    /**
+     * Returns the number of words added or removed since the base dictionary was built.
+     */
+    public int getPendingChanges() {
+        return snapshot.changeCount();
+    }
+
+    /**
+     * Returns the base dictionary (without the words added or removed since it was built).
+     */
+    WordStore dictionary() {
+        return snapshot.base.words();
     }
 
-    public void setResponseLimit(int responseLimit) {
-        this.responseLimit = responseLimit;
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * A consistent view of the dictionary: an immutable base (with its indexes), the words added since it was
+     * built, and the base words removed since. Never modified once published; every change publishes a new
+     * one, so a query sees the same dictionary from start to finish.
+     */
+    static final class Snapshot {
+        final DictionaryIndex base;
+        final WordStore added;
+        final BitSet removed;
+        private final int removedCount;
+
+        /**
+         * @param removed The IDs of the removed base words (null if there are none).
+         */
+        Snapshot(DictionaryIndex base, WordStore added, BitSet removed) {
+            this.base = base;
+            this.added = added;
+            this.removed = removed;
+            this.removedCount = removed == null ? 0 : removed.cardinality();
+        }
+
+        boolean contains(String word) {
+            int id = base.words().indexOf(word);
+            return id >= 0 ? !isRemoved(id) : added.contains(word);
+        }
+
+        boolean isRemoved(int id) {
+            return removed != null && removed.get(id);
+        }
+
+        int size() {
+            return base.words().size() - removedCount + added.size();
+        }
+
+        int changeCount() {
+            return added.size() + removedCount;
+        }
+
+        /**
+         * Returns every word, in no particular order.
+         */
+        String[] words() {
+            WordStore baseWords = base.words();
+            String[] words = new String[size()];
+            int count = 0;
+            for (int id = 0; id < baseWords.size(); id++) {
+                if (!isRemoved(id)) {
+                    words[count++] = baseWords.word(id);
+                }
+            }
+            for (String word : added) {
+                words[count++] = word;
+            }
+            return words;
+        }
+
+        /**
+         * Returns how many matches to keep from the base, so that enough are left once removed words are dropped.
+         */
+        int baseLimit(int responseLimit) {
+            return (int) Math.min(Integer.MAX_VALUE, (long) responseLimit + removedCount);
+        }
+
+        /**
+         * Turns the (sorted) top matches from the base into results: removed words are dropped, and the added
+         * words within the limit are merged in.
+         */
+        List<Result> results(TopKSelector top, String word, QueryOptions options) {
+            WordStore baseWords = base.words();
+            List<Result> results = new ArrayList<>(top.size());
+            for (int i = 0; i < top.size(); i++) {
+                if (!isRemoved(top.id(i))) {
+                    Result result = new Result(top.id(i), top.distance(i));
+                    result.word = baseWords.word(result.id);
+                    results.add(result);
+                }
+            }
+            if (added.size() == 0 && removedCount == 0) {
+                return results;
+            }
+
+            // Score the added words within the length window (there are few of them), and merge them in
+            int limit = options.getEditDistanceLimit();
+            LevenshteinDistance.Pattern pattern = LevenshteinDistance.compile(word);
+            for (int position = added.lengthStart(word.length() - limit); position < added.lengthEnd(word.length() + limit); position++) {
+                int id = added.idAt(position);
+                int distance = editDistance(added, id, pattern, limit);
+                if (distance != Integer.MAX_VALUE) {
+                    Result result = new Result(-1, distance);
+                    result.word = added.word(id);
+                    results.add(result);
+                }
+            }
+            results.sort(Comparator.comparingInt((Result result) -> result.distance).thenComparing(result -> result.word));
+            if (results.size() > options.getResponseLimit()) {
+                results = new ArrayList<>(results.subList(0, options.getResponseLimit()));
+            }
+            return results;
+        }
+
+        /**
+         * Turns the (sorted) completions from the base into words: removed words are dropped, and the added words
+         * completing the prefix (or a fuzzy prefix) are merged in. The base only keeps size completions per prefix,
+         * so a prefix whose completions were removed can come up short until the next compaction.
+         */
+        List<String> completions(TopKSelector top, CompletionIndex index, String prefix, boolean fuzzy, int limit) {
+            WordStore baseWords = base.words();
+            List<Result> results = new ArrayList<>(top.size());
+            for (int i = 0; i < top.size(); i++) {
+                int id = index.id(top.id(i));
+                if (!isRemoved(id)) {
+                    Result result = new Result(id, top.distance(i));
+                    result.word = baseWords.word(id);
+                    results.add(result);
+                }
+            }
+
+            // Check the added words (there are few of them), and rank everything again
+            if (added.size() > 0) {
+                int maxDistance = fuzzy ? CompletionIndex.FUZZY_DISTANCE : 0;
+                for (int id = 0; id < added.size(); id++) {
+                    int distance = CompletionIndex.prefixDistance(added, id, prefix, maxDistance);
+                    if (distance != Integer.MAX_VALUE) {
+                        Result result = new Result(-1, distance);
+                        result.word = added.word(id);
+                        results.add(result);
+                    }
+                }
+                results.sort(Comparator.comparingInt((Result result) -> result.distance)
+                        .thenComparingLong(result -> -index.weight(result.word))
+                        .thenComparingInt(result -> result.word.length())
+                        .thenComparing(result -> result.word));
+            }
+
+            List<String> completions = new ArrayList<>(Math.min(limit, results.size()));
+            for (int i = 0; i < results.size() && i < limit; i++) {
+                completions.add(results.get(i).word);
+            }
+            return completions;
+        }
+    }
+
+    // Getters for configuration (per-query settings are passed as QueryOptions instead)
+    public QueryOptions getDefaultOptions() {
+        return defaults;
+    }
+
+    public int getMaxEditDistance() {
+        return defaults.getEditDistanceLimit();
+    }
+
+    public boolean getIgnoreValidWords() {
+        return defaults.getIgnoreValidWords();
     }
 
     public int getResponseLimit() {
-        return responseLimit;
+        return defaults.getResponseLimit();
+    }
+
+    public SearchStrategy getStrategy() {
+        return defaults.getStrategy();
+    }
+
+    /**
+     * Enables parallel scoring: candidate lists at least threshold long are split across a fork/join pool,
+     * each worker keeping its own top results, which are then merged (the output doesn't change).
+     *
+     * @param threshold   The minimum number of candidates to score in parallel (0 to always score on the
+     *                    calling thread).
+     * @param parallelism The number of worker threads.
+     */
+    public synchronized void setParallelScoring(int threshold, int parallelism) {
+        // Swap the whole pool at once, so a query in flight keeps using the one it started with (the old one is
+        // only shut down once the last of them is done with it)
+        ScoringPool previous = scoringPool;
+        scoringPool = threshold > 0 ? new ScoringPool(threshold, new ForkJoinPool(parallelism)) : null;
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    public int getParallelThreshold() {
+        ScoringPool pool = scoringPool;
+        return pool == null ? 0 : pool.threshold;
+    }
+
+    /**
+     * Returns the number of worker threads scoring in parallel (0 if parallel scoring is disabled).
+     */
+    public int getParallelism() {
+        ScoringPool pool = scoringPool;
+        return pool == null ? 0 : pool.pool.getParallelism();
+    }
+
+    /**
+     * Enables the result cache (replacing the current one, and its contents), or disables it.
+     *
+     * @param maxEntries The maximum number of cached results (0 to disable the cache).
+     * @param maxBytes   The maximum (estimated) heap used by the cached results.
+     */
+    public void setResultCache(int maxEntries, long maxBytes) {
+        resultCache = maxEntries > 0 ? new SuggestionCache(maxEntries, maxBytes) : null;
+    }
+
+    /**
+     * Returns the result cache (for its counters), or null if it's disabled.
+     */
+    public SuggestionCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Sets the recorder of per-stage query timings and counts (null to disable them; queries then skip the
+     * timing altogether).
+     */
+    public void setQueryMetrics(QueryMetrics metrics) {
+        queryMetrics = metrics;
+    }
+
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * Drops every cached result. Has to be called whenever the dictionary changes.
+     */
+    void invalidateResultCache() {
+        SuggestionCache cache = resultCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * A fork/join pool, and the minimum number of candidates to split across it. Queries acquire it before
+     * submitting to it, so it's only shut down once it has been replaced and the last of them has released it.
+     */
+    private static final class ScoringPool {
+        final int threshold;
+        final ForkJoinPool pool;
+
+        // Queries using the pool, plus 1 until it's replaced (0 once it's shut down)
+        private final AtomicInteger users = new AtomicInteger(1);
+
+        ScoringPool(int threshold, ForkJoinPool pool) {
+            this.threshold = threshold;
+            this.pool = pool;
+        }
+
+        /**
+         * Starts using the pool.
+         *
+         * @return False if it was shut down already (the query then scores on its own thread).
+         */
+        boolean acquire() {
+            int count;
+            do {
+                count = users.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!users.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Stops using the pool (or, once, replaces it), shutting it down after the last user.
+         */
+        void release() {
+            if (users.decrementAndGet() == 0) {
+                pool.shutdown();
+            }
+        }
     }
 }
\ No newline at end of file
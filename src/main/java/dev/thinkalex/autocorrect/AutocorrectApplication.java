@@ -13,8 +13,8 @@ public class AutocorrectApplication {
     public static void main(String[] args) {
         SpringApplicationBuilder builder = new SpringApplicationBuilder(AutocorrectApplication.class);
 
-        // Check for CLI mode
-        if (Arrays.asList(args).contains("--cli")) {
+        // Check for CLI mode (and batch jobs, which don't need the web UI either)
+        if (Arrays.asList(args).contains("--cli") || Arrays.asList(args).contains("--correct-file")) {
             builder.web(WebApplicationType.NONE);
         }
 
@@ -0,0 +1,93 @@
+package dev.thinkalex.autocorrect;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AutocorrectLauncher
+ * <p>
+ * A plain Java entry point for one-off corrections from the command line: it builds {@link Autocorrect} directly,
+ * without Spring, and prints the suggestions for each word given as an argument (or, without any, each line of
+ * standard input). Starting it only costs loading the index file (and the classes it uses), which makes it a good
+ * fit for a class data sharing archive (see the README).
+ * </p>
+ * <pre>
+ * java -cp autocorrect.jar dev.thinkalex.autocorrect.AutocorrectLauncher [options] [words...]
+ *
+ * --edit-distance N   the maximum number of edits of a suggestion (2)
+ * --max-results N     the maximum number of suggestions (10)
+ * --strategy NAME     the candidate search strategy (AUTO)
+ * --index-file PATH   the index file of the large dictionary (large.idx, the text dictionary is parsed if it's missing)
+ * </pre>
+ * Each word is printed with its suggestions ("word: a, b, c"), or "word: ok" if it's in the dictionary.
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class AutocorrectLauncher {
+    private AutocorrectLauncher() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Parse options (the defaults are the same as application.properties)
+        int editDistance = 2;
+        int maxResults = 10;
+        SearchStrategy strategy = SearchStrategy.AUTO;
+        String indexFile = "large.idx";
+        List<String> words = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--edit-distance" -> editDistance = parseCount(args[++i]);
+                    case "--max-results" -> maxResults = parseCount(args[++i]);
+                    case "--strategy" -> strategy = SearchStrategy.valueOf(args[++i].toUpperCase());
+                    case "--index-file" -> indexFile = args[++i];
+                    default -> words.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println("Usage: AutocorrectLauncher [--edit-distance N] [--max-results N] [--strategy NAME]"
+                    + " [--index-file PATH] [words...]");
+            System.exit(2);
+        }
+
+        Autocorrect autocorrect = new Autocorrect(IndexFile.load("large", Path.of(indexFile)), editDistance, maxResults,
+                true, strategy);
+        PrintStream out = System.out;
+        if (!words.isEmpty()) {
+            for (String word : words) {
+                print(out, word, autocorrect.getTopStrings(word));
+            }
+            return;
+        }
+
+        // No words: correct each line of standard input, flushing as we go (so it works interactively too)
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String word = line.strip();
+            if (!word.isEmpty()) {
+                print(out, word, autocorrect.getTopStrings(word));
+                out.flush();
+            }
+        }
+    }
+
+    private static int parseCount(String value) {
+        // Not a number (NumberFormatException) or negative: both end up printing the usage
+        int count = Integer.parseInt(value);
+        if (count < 0) {
+            throw new IllegalArgumentException("Count must be at least 0!");
+        }
+        return count;
+    }
+
+    private static void print(PrintStream out, String word, List<String> suggestions) {
+        out.println(word + ": " + (suggestions == null ? "ok" : String.join(", ", suggestions)));
+    }
+}
@@ -0,0 +1,183 @@
+package dev.thinkalex.autocorrect;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * AutocorrectMetrics
+ * <p>
+ * Publishes the per-stage timings of every query to Micrometer (exposed by the actuator's Prometheus endpoint in
+ * the web UI, at /actuator/prometheus):
+ * </p>
+ * <ul>
+ *     <li>autocorrect.query.stage: a timer per stage (validation, candidates, scoring, selection)</li>
+ *     <li>autocorrect.query.candidates: the number of candidates scored (or index nodes visited)</li>
+ *     <li>autocorrect.query.pruned: the number of words in the length window the index ruled out</li>
+ *     <li>autocorrect.query.valid: the number of queries for words in the dictionary</li>
+ *     <li>autocorrect.query.searched: the number of queries for other words</li>
+ * </ul>
+ * <p>
+ * Each is tagged with the edit distance limit and the strategy, and the counters with the length of the typed
+ * word too (the timers and distributions each export a series per histogram bucket, so a length tag would
+ * multiply those by 17). Set autocorrect.metrics.enabled to false to turn them off (queries then aren't timed
+ * at all).
+ * </p>
+ * <p>
+ * The {@link QueryScheduler}'s counters are read when the metrics are scraped:
+ * </p>
+ * <ul>
+ *     <li>autocorrect.scheduler.queries: queries by outcome (inline, scheduled, degraded, rejected, coalesced
+ *     into an identical query in progress, timed out)</li>
+ *     <li>autocorrect.scheduler.abandoned: searches cancelled because every query waiting for them gave up</li>
+ *     <li>autocorrect.scheduler.in-flight and autocorrect.scheduler.queue: searches in progress, and waiting for
+ *     a scoring thread</li>
+ * </ul>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+@Component
+public class AutocorrectMetrics implements QueryMetrics {
+    // Lengths and distances past these share a tag (e.g. "16+"), so the number of series stays bounded
+    private static final int MAX_LENGTH = 16;
+    private static final int MAX_DISTANCE = 8;
+
+    private static final QueryTrace.Stage[] STAGES = QueryTrace.Stage.values();
+    private static final SearchStrategy[] STRATEGIES = SearchStrategy.values();
+    private static final int SERIES = (MAX_DISTANCE + 1) * STRATEGIES.length;
+    private static final int LENGTH_SERIES = (MAX_LENGTH + 1) * SERIES;
+
+    // The histogram buckets of the candidates and pruned words (the defaults go up to Long.MAX_VALUE)
+    private static final double[] WORD_BUCKETS = {1, 10, 30, 100, 300, 1_000, 3_000, 10_000, 30_000, 100_000,
+            300_000, 1_000_000};
+
+    private final MeterRegistry registry;
+
+    // Meters by tags, registered on first use (registering looks them up by name and tags, which is slower)
+    private final AtomicReferenceArray<Timer> timers = new AtomicReferenceArray<>(SERIES * STAGES.length);
+    private final AtomicReferenceArray<DistributionSummary> candidates = new AtomicReferenceArray<>(SERIES);
+    private final AtomicReferenceArray<DistributionSummary> pruned = new AtomicReferenceArray<>(SERIES);
+    private final AtomicReferenceArray<Counter> valid = new AtomicReferenceArray<>(LENGTH_SERIES);
+    private final AtomicReferenceArray<Counter> searched = new AtomicReferenceArray<>(LENGTH_SERIES);
+
+    public AutocorrectMetrics(Autocorrect autocorrect, QueryScheduler scheduler, MeterRegistry registry,
+                              @Value("${autocorrect.metrics.enabled:true}") boolean enabled) {
+        this.registry = registry;
+        if (enabled) {
+            autocorrect.setQueryMetrics(this);
+
+            schedulerCounter(scheduler, "inline", QueryScheduler::getInlineCount);
+            schedulerCounter(scheduler, "scheduled", QueryScheduler::getScheduledCount);
+            schedulerCounter(scheduler, "degraded", QueryScheduler::getDegradedCount);
+            schedulerCounter(scheduler, "rejected", QueryScheduler::getRejectedCount);
+            schedulerCounter(scheduler, "coalesced", QueryScheduler::getCoalescedCount);
+            schedulerCounter(scheduler, "timed_out", QueryScheduler::getTimedOutCount);
+            FunctionCounter.builder("autocorrect.scheduler.abandoned", scheduler, QueryScheduler::getAbandonedCount)
+                    .description("Searches cancelled because every query waiting for them gave up")
+                    .register(registry);
+            Gauge.builder("autocorrect.scheduler.in-flight", scheduler, QueryScheduler::getInFlightCount)
+                    .description("Distinct searches in progress (each shared by one or more queries)")
+                    .register(registry);
+            Gauge.builder("autocorrect.scheduler.queue", scheduler, QueryScheduler::getQueueSize)
+                    .description("Expensive queries waiting for a scoring thread")
+                    .register(registry);
+        }
+    }
+
+    private void schedulerCounter(QueryScheduler scheduler, String outcome, ToDoubleFunction<QueryScheduler> count) {
+        FunctionCounter.builder("autocorrect.scheduler.queries", scheduler, count)
+                .description("Queries by how the scheduler answered them")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    @Override
+    public void record(QueryTrace trace) {
+        int length = Math.min(trace.getLength(), MAX_LENGTH);
+        int distance = Math.min(trace.getEditDistanceLimit(), MAX_DISTANCE);
+        int series = trace.getStrategy().ordinal() * (MAX_DISTANCE + 1) + distance;
+
+        for (QueryTrace.Stage stage : STAGES) {
+            long nanos = trace.getNanos(stage);
+            if (nanos >= 0) {
+                timer(stage, series, distance, trace.getStrategy()).record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (trace.isValid()) {
+            counter(valid, "autocorrect.query.valid", "Queries for words in the dictionary (not searched)",
+                    series, length, distance, trace.getStrategy()).increment();
+        } else {
+            counter(searched, "autocorrect.query.searched", "Queries for words not in the dictionary",
+                    series, length, distance, trace.getStrategy()).increment();
+        }
+        if (trace.getCandidates() >= 0) {
+            summary(candidates, "autocorrect.query.candidates", "Candidates scored (or index nodes visited) per query",
+                    series, distance, trace.getStrategy()).record(trace.getCandidates());
+        }
+        if (trace.getPruned() >= 0) {
+            summary(pruned, "autocorrect.query.pruned", "Words in the length window ruled out without scoring",
+                    series, distance, trace.getStrategy()).record(trace.getPruned());
+        }
+    }
+
+    private Timer timer(QueryTrace.Stage stage, int series, int distance, SearchStrategy strategy) {
+        int index = stage.ordinal() * SERIES + series;
+        Timer timer = timers.get(index);
+        if (timer == null) {
+            timer = Timer.builder("autocorrect.query.stage")
+                    .description("Time spent in each stage of a query")
+                    .tags(tags(distance, strategy))
+                    .tag("stage", stage.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(registry);
+            timers.set(index, timer);
+        }
+        return timer;
+    }
+
+    private DistributionSummary summary(AtomicReferenceArray<DistributionSummary> summaries, String name,
+                                        String description, int series, int distance, SearchStrategy strategy) {
+        DistributionSummary summary = summaries.get(series);
+        if (summary == null) {
+            summary = DistributionSummary.builder(name)
+                    .description(description)
+                    .baseUnit("words")
+                    .tags(tags(distance, strategy))
+                    .serviceLevelObjectives(WORD_BUCKETS)
+                    .register(registry);
+            summaries.set(series, summary);
+        }
+        return summary;
+    }
+
+    private Counter counter(AtomicReferenceArray<Counter> counters, String name, String description, int series,
+                            int length, int distance, SearchStrategy strategy) {
+        int index = length * SERIES + series;
+        Counter counter = counters.get(index);
+        if (counter == null) {
+            counter = Counter.builder(name)
+                    .description(description)
+                    .tags(tags(distance, strategy))
+                    .tag("length", length == MAX_LENGTH ? MAX_LENGTH + "+" : Integer.toString(length))
+                    .register(registry);
+            counters.set(index, counter);
+        }
+        return counter;
+    }
+
+    private static String[] tags(int distance, SearchStrategy strategy) {
+        return new String[]{
+                "distance", distance == MAX_DISTANCE ? MAX_DISTANCE + "+" : Integer.toString(distance),
+                "strategy", strategy.name()
+        };
+    }
+}
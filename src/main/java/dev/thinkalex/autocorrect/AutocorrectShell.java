@@ -3,6 +3,8 @@ package dev.thinkalex.autocorrect;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.core.env.Environment;
+import org.springframework.shell.component.message.ShellMessageBuilder;
 import org.springframework.shell.component.view.TerminalUI;
 import org.springframework.shell.component.view.TerminalUIBuilder;
 import org.springframework.shell.component.view.control.*;
@@ -11,9 +13,24 @@ import org.springframework.shell.component.view.event.KeyEvent;
 import org.springframework.shell.geom.HorizontalAlign;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
-
+import org.springframework.shell.standard.ShellOption;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.System.exit;
 
@@ -23,6 +40,12 @@ public class AutocorrectShell implements CommandLineRunner, ExitCodeGenerator {
     @Autowired
     private Autocorrect autocorrect;
 
+    @Autowired
+    private QueryScheduler scheduler;
+
+    @Autowired
+    private Environment environment;
+
     // TUI Builder
     @Autowired
     TerminalUIBuilder builder;
@@ -39,6 +62,44 @@ public class AutocorrectShell implements CommandLineRunner, ExitCodeGenerator {
 
     private EventLoop eventLoop;
 
+    // Suggestions are computed off the event loop, for the latest input only (older ones are skipped)
+    private TypingSession session;
+    private ExecutorService suggestionWorker;
+    private final AtomicReference<SuggestionRequest> pendingRequest = new AtomicReference<>();
+    private final AtomicBoolean workerRunning = new AtomicBoolean();
+    private SuggestionRequest lastRequest;
+
+    /**
+     * The inputs to compute suggestions for (or the error to show instead).
+     */
+    private static final class SuggestionRequest {
+        final String word;
+        final QueryOptions options;
+        final String error;
+
+        SuggestionRequest(String word, QueryOptions options, String error) {
+            this.word = word;
+            this.options = options;
+            this.error = error;
+        }
+
+        boolean sameAs(SuggestionRequest other) {
+            return other != null && Objects.equals(word, other.word) && Objects.equals(options, other.options)
+                    && Objects.equals(error, other.error);
+        }
+    }
+
+    /**
+     * Suggestions to show, sent back to the event loop.
+     */
+    private static final class SuggestionsReady {
+        final List<String> items;
+
+        SuggestionsReady(List<String> items) {
+            this.items = items;
+        }
+    }
+
     @Override
     public void run(String... args) throws Exception {
 
@@ -65,7 +126,7 @@ public class AutocorrectShell implements CommandLineRunner, ExitCodeGenerator {
             }
         } catch (NumberFormatException e) {
             // Clear suggestions w/ error
-            suggestionsView.setItems(List.of("Invalid Edit Distance"));
+            submit(new SuggestionRequest(null, null, "Invalid Edit Distance"));
             return;
         }
 
@@ -76,7 +137,7 @@ public class AutocorrectShell implements CommandLineRunner, ExitCodeGenerator {
             }
         } catch (NumberFormatException e) {
             // Clear suggestions w/ error
-            suggestionsView.setItems(List.of("Invalid Response Limit"));
+            submit(new SuggestionRequest(null, null, "Invalid Response Limit"));
             return;
         }
 
@@ -84,24 +145,71 @@ public class AutocorrectShell implements CommandLineRunner, ExitCodeGenerator {
         String word = wordInput.getInputText();
         if (word.isEmpty()) {
             // Clear suggestions w/ error
-            suggestionsView.setItems(List.of("Please enter a word"));
+            submit(new SuggestionRequest(null, null, "Please enter a word"));
             return;
         }
 
-        // Configure autocorrect
-        autocorrect.setMaxEditDistance(editDistance);
-        autocorrect.setResponseLimit(responseLimit);
+        // Configure this query
+        QueryOptions options = autocorrect.getDefaultOptions()
+                .withEditDistanceLimit(editDistance)
+                .withResponseLimit(responseLimit);
+        submit(new SuggestionRequest(word, options, null));
+    }
 
-        // Get suggestions
-        List<String> suggestions = autocorrect.getTopStrings(word.toLowerCase());
+    /**
+     * Queues the inputs for the worker, unless they didn't change (cursor moves, focus changes, redraws...).
+     */
+    private void submit(SuggestionRequest request) {
+        if (request.sameAs(lastRequest)) {
+            return;
+        }
+        lastRequest = request;
 
-        // Check if word exists (null = word exists, [] = no suggestions)
-        if (suggestions == null) {
-            suggestionsView.setItems(List.of("Valid dictionary word!"));
-        } else if (suggestions.isEmpty()) {
-            suggestionsView.setItems(List.of("No suggestions found!"));
-        } else {
-            suggestionsView.setItems(suggestions);
+        // Replace whatever the worker hasn't started on yet, and start it if it's idle
+        pendingRequest.set(request);
+        if (workerRunning.compareAndSet(false, true)) {
+            suggestionWorker.execute(this::computeSuggestions);
+        }
+    }
+
+    /**
+     * Computes suggestions for the latest inputs until there are no new ones (runs on the worker).
+     */
+    private void computeSuggestions() {
+        while (true) {
+            SuggestionRequest request = pendingRequest.getAndSet(null);
+            if (request == null) {
+                // Stop, unless inputs came in after the last check
+                workerRunning.set(false);
+                if (pendingRequest.get() == null || !workerRunning.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            List<String> items;
+            if (request.error != null) {
+                items = List.of(request.error);
+            } else {
+                // Get suggestions (reusing the work done for the previous keystroke)
+                List<String> suggestions = session.update(request.word, request.options);
+
+                // Check if word exists (null = word exists, [] = no suggestions)
+                if (suggestions == null) {
+                    items = List.of("Valid dictionary word!");
+                } else if (suggestions.isEmpty()) {
+                    items = List.of("No suggestions found!");
+                } else {
+                    items = suggestions;
+                }
+            }
+
+            // Only show them if they're still current
+            if (pendingRequest.get() == null) {
+                eventLoop.dispatch(ShellMessageBuilder.withPayload(new SuggestionsReady(items))
+                        .setEventType(EventLoop.Type.USER)
+                        .build());
+            }
         }
     }
 
@@ -204,6 +312,20 @@ public class AutocorrectShell implements CommandLineRunner, ExitCodeGenerator {
                 })
                 .subscribe());
 
+        // Compute suggestions in the background, showing them once they're ready
+        session = autocorrect.newTypingSession();
+        suggestionWorker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autocorrect-suggestions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        eventLoop.onDestroy(eventLoop.events(EventLoop.Type.USER, SuggestionsReady.class)
+                .doOnNext(ready -> {
+                    suggestionsView.setItems(ready.items);
+                    tui.redraw();
+                })
+                .subscribe());
+
         // Log events
         eventLoop.onDestroy(eventLoop.events().doOnEach(
                 m -> {
@@ -221,44 +343,262 @@ public class AutocorrectShell implements CommandLineRunner, ExitCodeGenerator {
         tui.run();
     }
 
-    // Benchmark Method
-    @ShellMethod(value = "Benchmark performance!", key = "--benchmark")
-    public void benchmark() {
-        // Configure Optimizations
-        autocorrect.setMaxEditDistance(3);
-        autocorrect.setResponseLimit(10);
-        autocorrect.setIgnoreValidWords(false);
+    // Parallel Benchmark Method
+    @ShellMethod(value = "Benchmark sequential vs parallel scoring!", key = "--benchmark-parallel")
+    public void benchmarkParallel(@ShellOption(defaultValue = "1000", help = "Minimum candidates to score in parallel") int threshold) {
+        // Configure Optimizations (short words at a high edit distance have the most candidates)
+        QueryOptions options = new QueryOptions(3, 10, false, autocorrect.getStrategy());
+        List<String> words = new ArrayList<>();
+        int shortWords = 0;
+        for (String word : autocorrect.dictionary()) {
+            if (word.length() <= 6 && shortWords++ % 10 == 0) {
+                words.add(word);
+            }
+        }
 
-        // Start measuring time
-        long startTime = System.currentTimeMillis();
+        // Sequential, then each number of cores (the configured scoring pool is put back afterwards)
+        int cores = Runtime.getRuntime().availableProcessors();
+        int configuredThreshold = autocorrect.getParallelThreshold();
+        int configuredParallelism = autocorrect.getParallelism();
+        System.out.println("Words: " + words.size() + ", cores: " + cores);
+        try {
+            for (int parallelism = 0; parallelism <= cores; parallelism++) {
+                autocorrect.setParallelScoring(parallelism == 0 ? 0 : threshold, Math.max(1, parallelism));
+                for (String word : words) {
+                    autocorrect.getTopResults(word, options, null);
+                }
+
+                // (getTopResults doesn't use the result cache, so every word is scored again)
+                long startTime = System.nanoTime();
+                for (String word : words) {
+                    autocorrect.getTopResults(word, options, null);
+                }
+                double averageTime = (System.nanoTime() - startTime) / 1e6 / words.size();
+                System.out.println((parallelism == 0 ? "Sequential" : "Parallel (" + parallelism + " cores)")
+                        + ": " + String.format("%.3f", averageTime) + "ms per word");
+            }
+        } finally {
+            autocorrect.setParallelScoring(configuredThreshold, Math.max(1, configuredParallelism));
+        }
+    }
+
+    // Correct File Method
+    @ShellMethod(value = "Correct a text file!", key = "--correct-file")
+    public void correctFile(@ShellOption(help = "Text file to correct") String input,
+                            @ShellOption(help = "Corrected text (or misspelling report) file") String output,
+                            @ShellOption(defaultValue = "false", help = "Only write the misspelling report") boolean dryRun,
+                            @ShellOption(defaultValue = "2", help = "Edit distance of the suggestions") int editDistance,
+                            @ShellOption(defaultValue = "4", help = "Chunk size in MB") int chunkSize,
+                            @ShellOption(defaultValue = "0", help = "Chunks corrected at once (0 for one per core)") int threads)
+            throws IOException {
+        QueryOptions options = autocorrect.getDefaultOptions().withEditDistanceLimit(editDistance);
+        int cores = Runtime.getRuntime().availableProcessors();
+        FileCorrector corrector = new FileCorrector(autocorrect, options, (long) chunkSize << 20, threads == 0 ? cores : threads);
+        FileCorrector.Summary summary = corrector.correct(Path.of(input), Path.of(output), dryRun);
+        System.out.println((dryRun ? "Misspellings written to " : "Corrected text written to ") + output);
+        System.out.println(summary);
+    }
 
-        // Loop through each word
-        int complete = 0;
-        for (String word : autocorrect.dictionary) {
-            autocorrect.getTopStrings(word);
-            complete++;
-
-            // Clear terminal less frequently to improve performance
-                System.out.print("\033[H\033[2J");
-                System.out.flush();
-
-            // Print benchmark state
-            long currentTime = System.currentTimeMillis();
-            double averageTime = (currentTime - startTime) / (double)complete;
-            System.out.println("Benchmark Progress: " + String.format("%.2f", ((complete * 100.0) / autocorrect.dictionary.size())) +
-                    "% complete (" + complete + "/" + autocorrect.dictionary.size() + ")");
-            System.out.println("Time per word: " + String.format("%.2f", averageTime) + "ms");
+    @ShellMethod(value = "Load test the web UI's /correct endpoint!", key = "--load-test")
+    public void loadTest(@ShellOption(defaultValue = "8", help = "Requests in flight") int concurrency,
+                         @ShellOption(defaultValue = "5", help = "Seconds of warm-up (not recorded)") int warmup,
+                         @ShellOption(defaultValue = "30", help = "Seconds of recorded traffic") int seconds,
+                         @ShellOption(defaultValue = "2", help = "Edit distance of the requests") int editDistance,
+                         @ShellOption(defaultValue = "0", help = "Seed of the typos") long seed,
+                         @ShellOption(defaultValue = "1.0", help = "Zipf exponent of the typed words") double zipf,
+                         @ShellOption(defaultValue = "load-report.json", help = "JSON report file") String report,
+                         @ShellOption(value = "--max-p99", defaultValue = "0", help = "Fail if p99 is above this many ms (0 to not check)") double maxP99,
+                         @ShellOption(defaultValue = "0", help = "Fail below this many requests/s (0 to not check)") double minThroughput)
+            throws InterruptedException, IOException {
+        // The embedded server runs in this process (not with --cli)
+        String port = environment.getProperty("local.server.port");
+        if (port == null) {
+            System.out.println("The web server isn't running!");
+            exit(2);
         }
 
-        // Clear terminal
-        System.out.print("\033[H\033[2J");
-        System.out.flush();
+        String[] dictionary = IndexFile.parseDictionary(IndexFile.readDictionaryText("large"));
+        LoadHarness harness = new LoadHarness(URI.create("http://localhost:" + port + "/correct"), dictionary, concurrency,
+                Duration.ofSeconds(warmup), Duration.ofSeconds(seconds), editDistance, 10, seed, zipf);
+        System.out.println("Load testing " + concurrency + " concurrent requests for " + warmup + "s + " + seconds + "s...");
+        LoadHarness.Report result = harness.run();
+        result.write(Path.of(report));
+        System.out.println(result);
+        System.out.println("Report written to " + report);
+
+        // Gate: fail the run if it's slower than the thresholds, or any request failed
+        boolean passed = result.getErrors() == 0
+                && (maxP99 <= 0 || result.percentile(0.99) <= maxP99)
+                && (minThroughput <= 0 || result.getThroughput() >= minThroughput);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        exit(passed ? 0 : 1);
+    }
+
+    @ShellMethod(value = "Benchmark mixed cheap and expensive traffic!", key = "--benchmark-load")
+    public void benchmarkLoad(@ShellOption(defaultValue = "1000", help = "Requests per second") int rate,
+                              @ShellOption(defaultValue = "5", help = "Seconds of traffic") int seconds,
+                              @ShellOption(defaultValue = "20", help = "Percentage of expensive requests") int expensivePercent,
+                              @ShellOption(defaultValue = "200", help = "Request threads (Tomcat's default)") int requestThreads)
+            throws InterruptedException {
+        // Cheap requests are valid words and 1-edit typos, expensive ones are 3-edit typos (the cache is disabled,
+        // so both runs search, and put back with its configured bounds afterwards)
+        SuggestionCache cache = autocorrect.getResultCache();
+        autocorrect.setResultCache(0, 0);
+        try {
+            WordStore dictionary = autocorrect.dictionary();
+            Random random = new Random(0);
+            int count = rate * seconds;
+            String[] words = new String[count];
+            QueryOptions[] options = new QueryOptions[count];
+            boolean[] expensive = new boolean[count];
+            QueryOptions cheapOptions = new QueryOptions(1, 10, true, autocorrect.getStrategy());
+            QueryOptions expensiveOptions = cheapOptions.withEditDistanceLimit(3);
+            for (int i = 0; i < count; i++) {
+                String word = dictionary.word(random.nextInt(dictionary.size()));
+                expensive[i] = random.nextInt(100) < expensivePercent;
+                if (expensive[i] || random.nextBoolean()) {
+                    StringBuilder typo = new StringBuilder(word);
+                    typo.setCharAt(random.nextInt(typo.length()), (char) ('a' + random.nextInt(26)));
+                    word = typo.toString();
+                }
+                words[i] = word;
+                options[i] = expensive[i] ? expensiveOptions : cheapOptions;
+            }
+
+            // Warm up
+            for (int i = 0; i < count / 10; i++) {
+                autocorrect.getTopStrings(words[i], options[i]);
+            }
+
+            System.out.println("Requests: " + count + " (" + rate + "/s, " + expensivePercent + "% expensive), request threads: "
+                    + requestThreads + ", cores: " + Runtime.getRuntime().availableProcessors());
+            for (boolean scheduled : new boolean[]{false, true}) {
+                // Open loop: requests arrive on schedule, whether or not the earlier ones are done
+                ExecutorService requestPool = Executors.newFixedThreadPool(requestThreads);
+                long[] latencies = new long[count];
+                CountDownLatch done = new CountDownLatch(count);
+                long degradedBefore = scheduler.getDegradedCount();
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    long arrival = start + i * 1_000_000_000L / rate;
+                    LockSupport.parkNanos(arrival - System.nanoTime());
+                    int request = i;
+                    requestPool.execute(() -> {
+                        if (scheduled) {
+                            // The request thread is released while the query waits for a scoring thread
+                            scheduler.suggest(words[request], options[request]).whenComplete((result, error) -> {
+                                latencies[request] = System.nanoTime() - arrival;
+                                done.countDown();
+                            });
+                        } else {
+                            autocorrect.getTopStrings(words[request], options[request]);
+                            latencies[request] = System.nanoTime() - arrival;
+                            done.countDown();
+                        }
+                    });
+                }
+                done.await();
+                requestPool.shutdown();
+
+                System.out.println(scheduled ? "Scoring pool (" + (scheduler.getDegradedCount() - degradedBefore) + " degraded):"
+                        : "Request threads only:");
+                printLatencies("  cheap", latencies, expensive, false);
+                printLatencies("  expensive", latencies, expensive, true);
+            }
+        } finally {
+            autocorrect.setResultCache(cache == null ? 0 : cache.getMaxEntries(), cache == null ? 0 : cache.getMaxBytes());
+        }
+    }
 
-        // Log final results
-        long endTime = System.currentTimeMillis();
-        double averageTime = (endTime - startTime) / (double)autocorrect.dictionary.size();
-        System.out.println("Benchmark Complete!");
-        System.out.println("Time Taken: " + String.format("%.2f", ((endTime - startTime) / 1000.0)) + " seconds");
-        System.out.println("Time per word: " + String.format("%.2f", averageTime) + "ms");
+    private static void printLatencies(String label, long[] latencies, boolean[] expensive, boolean selected) {
+        long[] sorted = new long[latencies.length];
+        int count = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            if (expensive[i] == selected) {
+                sorted[count++] = latencies[i];
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(sorted, 0, count);
+        System.out.println(label + ": p50 " + String.format("%.2f", sorted[count / 2] / 1e6) + "ms, p99 "
+                + String.format("%.2f", sorted[(int) (count * 0.99)] / 1e6) + "ms, max "
+                + String.format("%.2f", sorted[count - 1] / 1e6) + "ms");
+    }
+
+    // Typing Benchmark Method
+    @ShellMethod(value = "Benchmark as-you-type suggestions!", key = "--benchmark-typing")
+    public void benchmarkTyping(@ShellOption(defaultValue = "3", help = "Max edit distance") int editDistance) {
+        // Type every 50th word one character at a time, with a backspace and a retype every 4 characters
+        QueryOptions options = autocorrect.getDefaultOptions().withEditDistanceLimit(editDistance);
+        List<String> inputs = new ArrayList<>();
+        int index = 0;
+        for (String word : autocorrect.dictionary()) {
+            if (index++ % 50 != 0) {
+                continue;
+            }
+            for (int i = 1; i <= word.length(); i++) {
+                inputs.add(word.substring(0, i));
+                if (i % 4 == 0) {
+                    inputs.add(word.substring(0, i - 1));
+                    inputs.add(word.substring(0, i));
+                }
+            }
+        }
+
+        // Full search on every keystroke, then incremental
+        System.out.println("Keystrokes: " + inputs.size() + ", max edit distance: " + editDistance);
+        for (boolean incremental : new boolean[]{false, true}) {
+            TypingSession session = autocorrect.newTypingSession();
+            long worstTime = 0;
+            long startTime = System.nanoTime();
+            for (String input : inputs) {
+                long keyTime = System.nanoTime();
+                if (incremental) {
+                    session.update(input, options);
+                } else {
+                    autocorrect.getTopStrings(input, options);
+                }
+                worstTime = Math.max(worstTime, System.nanoTime() - keyTime);
+            }
+            double averageTime = (System.nanoTime() - startTime) / 1e6 / inputs.size();
+            System.out.println((incremental ? "Incremental" : "Full search") + ": "
+                    + String.format("%.3f", averageTime) + "ms per keystroke (worst "
+                    + String.format("%.1f", worstTime / 1e6) + "ms, "
+                    + String.format("%.0f", 1000 / averageTime) + " keystrokes/sec)");
+        }
+    }
+
+    // Index Memory Method
+    @ShellMethod(value = "Compare index memory usage!", key = "--index-stats")
+    public void indexStats() {
+        System.out.print(autocorrect.getIndexMemoryReport());
+    }
+
+    // Query Plan Method
+    @ShellMethod(value = "Explain how queries find their candidates!", key = "--explain")
+    public void explain(@ShellOption(help = "Words to plan (comma-separated)") String[] words,
+                        @ShellOption(defaultValue = "2", help = "Max edit distance") int editDistance,
+                        @ShellOption(defaultValue = "AUTO", help = "Strategy to run (AUTO runs the cheapest)") SearchStrategy strategy) {
+        QueryOptions options = autocorrect.getDefaultOptions().withEditDistanceLimit(editDistance).withStrategy(strategy);
+        for (String word : words) {
+            // Run once to build the index (and warm up), then report a second run
+            autocorrect.explain(word, options);
+            System.out.print(autocorrect.explain(word, options));
+        }
+    }
+
+    // Index File Method
+    @ShellMethod(value = "Build the binary index file!", key = "--build-index")
+    public void buildIndex(@ShellOption(defaultValue = "", help = "Dictionary text file (defaults to the large dictionary)") String dictionary,
+                           @ShellOption(defaultValue = "large.idx", help = "Index file to write") String output) throws IOException {
+        long startTime = System.currentTimeMillis();
+        if (dictionary.isEmpty()) {
+            IndexFile.write(IndexFile.readDictionaryText("large"), Path.of(output));
+        } else {
+            IndexFile.write(Path.of(dictionary), Path.of(output));
+        }
+        System.out.println("Index written to " + output + " in " + (System.currentTimeMillis() - startTime) + "ms");
     }
 }
\ No newline at end of file
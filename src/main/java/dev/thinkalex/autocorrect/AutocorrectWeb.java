@@ -1,31 +1,47 @@
 package dev.thinkalex.autocorrect;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 @Controller
 public class AutocorrectWeb {
     @Autowired
     private Autocorrect autocorrect;
 
+    // Expensive queries are scored on a bounded pool (the request thread is released while they wait)
+    @Autowired
+    private QueryScheduler scheduler;
+
     private void addCommonAttributes(Model model, String word) {
         model.addAttribute("word", word);
         model.addAttribute("editDistance", autocorrect.getMaxEditDistance());
         model.addAttribute("maxResults", autocorrect.getResponseLimit());
     }
 
-    private void addSuggestions(Model model, String word) {
-        List<String> nullableSuggestions = autocorrect.getTopStrings(word);
+    private void addSuggestions(Model model, QueryScheduler.Suggestions result) {
+        List<String> nullableSuggestions = result.getWords();
         List<String > suggestions = nullableSuggestions == null ? new ArrayList<>() : nullableSuggestions;
         model.addAttribute("suggestions", suggestions);
         model.addAttribute("wordFound", nullableSuggestions == null);
+        model.addAttribute("degraded", result.isDegraded());
+        model.addAttribute("searchedEditDistance", result.getEditDistance());
 
         // Disable error message
         model.addAttribute("error", "");
@@ -50,7 +66,7 @@ public class AutocorrectWeb {
     }
 
     @PostMapping("/correct")
-    public String correct(@RequestParam("word") String word, @RequestParam("editDistance") String editDistanceString, @RequestParam("maxResults") String responseLimitString, Model model) {
+    public CompletableFuture<String> correct(@RequestParam("word") String word, @RequestParam("editDistance") String editDistanceString, @RequestParam("maxResults") String responseLimitString, Model model) {
         // Add common attributes
         addCommonAttributes(model, word);
 
@@ -61,14 +77,14 @@ public class AutocorrectWeb {
             editDistance = Integer.parseInt(editDistanceString);
         } catch (NumberFormatException e) {
             addError(model, "Edit distance must be a valid integer!");
-            return "fragments/results";
+            return CompletableFuture.completedFuture("fragments/results");
         }
 
         try {
             responseLimit = Integer.parseInt(responseLimitString);
         } catch (NumberFormatException e) {
             addError(model, "Max results must be a valid integer!");
-            return "fragments/results";
+            return CompletableFuture.completedFuture("fragments/results");
         }
 
         // Check for parameters
@@ -79,13 +95,67 @@ public class AutocorrectWeb {
         } else if (responseLimit < 1) {
             addError(model, "Max results must be at least 1!");
         } else {
-            // Update configuration
-            autocorrect.setMaxEditDistance(editDistance);
-            autocorrect.setResponseLimit(responseLimit);
-            addSuggestions(model, word);
+            // Configure this request only (the service is shared by every request)
+            QueryOptions options = autocorrect.getDefaultOptions()
+                    .withEditDistanceLimit(editDistance)
+                    .withResponseLimit(responseLimit);
+            return scheduler.suggest(word, options).handle((result, error) -> {
+                if (error == null) {
+                    addSuggestions(model, result);
+                } else if (unwrap(error) instanceof RejectedExecutionException || unwrap(error) instanceof TimeoutException) {
+                    addError(model, "The server is busy, try again (or with a smaller edit distance)!");
+                } else {
+                    throw new CompletionException(unwrap(error));
+                }
+                return "fragments/results";
+            });
         }
 
         // Return the results page
-        return "fragments/results";
+        return CompletableFuture.completedFuture("fragments/results");
+    }
+
+    @PostMapping(value = "/api/correct-text", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public CompletableFuture<List<Correction>> correctText(@RequestBody(required = false) String text) {
+        return text == null ? CompletableFuture.completedFuture(List.of())
+                : scheduler.correctText(text, autocorrect.getDefaultOptions());
+    }
+
+    // Typeahead: completions are precomputed per prefix, so they're answered on the request thread
+    @GetMapping(value = "/api/complete", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<String> complete(@RequestParam("prefix") String prefix,
+                                 @RequestParam(value = "limit", required = false) Integer limit,
+                                 @RequestParam(value = "fuzzy", defaultValue = "false") boolean fuzzy) {
+        return autocorrect.getCompletions(prefix, limit == null ? autocorrect.getCompletionSize() : limit, fuzzy);
+    }
+
+    // Invalid parameters (e.g. a limit under 1)
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    public String invalid(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+
+    // Queries rejected because the scoring queue was full (only with autocorrect.scheduler.overload=REJECT)
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public String busy(RejectedExecutionException e) {
+        return e.getMessage();
+    }
+
+    // Queries which waited longer than autocorrect.scheduler.timeout-ms
+    @ExceptionHandler(TimeoutException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public String timedOut(TimeoutException e) {
+        return "Timed out, try again!";
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 }
@@ -0,0 +1,172 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * BKTree
+ * <p>
+ * Burkhard-Keller tree over the dictionary: every child is stored under its edit distance to its parent.
+ * When searching within k of a word at distance d from a node, the triangle inequality means only the
+ * children with an edge in [d - k, d + k] can contain matches, so every other subtree is skipped.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public class BKTree {
+    private final WordStore store;
+
+    // Word ID of each node (node 0 is the root)
+    private final int[] words;
+
+    // Children of node i are children[childStarts[i]..childStarts[i + 1]], sorted by edge distance
+    private final int[] childStarts;
+    private final int[] children;
+    private final int[] edges;
+
+    public BKTree(WordStore store) {
+        this.store = store;
+
+        // Insert in a shuffled (but repeatable) order, so the tree doesn't degenerate on sorted input
+        int[] words = new int[store.size()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = i;
+        }
+        Random random = new Random(0);
+        for (int i = words.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = words[i];
+            words[i] = words[j];
+            words[j] = swap;
+        }
+        this.words = words;
+
+        // Build with growable per-node edge lists of (distance, child) pairs
+        char[] chars = store.chars();
+        int[][] nodeEdges = new int[words.length][];
+        int[] nodeEdgeCounts = new int[words.length];
+        for (int id = 1; id < words.length; id++) {
+            LevenshteinDistance.Pattern pattern = LevenshteinDistance.compile(store.word(words[id]));
+            int node = 0;
+            while (true) {
+                int word = words[node];
+                int limit = Math.max(pattern.length(), store.length(word));
+                int distance = pattern.distance(chars, store.start(word), store.end(word), limit);
+                int child = findChild(nodeEdges[node], nodeEdgeCounts[node], distance);
+                if (child >= 0) {
+                    node = child;
+                    continue;
+                }
+
+                // Add as a new child
+                if (nodeEdges[node] == null) {
+                    nodeEdges[node] = new int[4];
+                } else if (nodeEdgeCounts[node] * 2 == nodeEdges[node].length) {
+                    nodeEdges[node] = Arrays.copyOf(nodeEdges[node], nodeEdges[node].length * 2);
+                }
+                nodeEdges[node][nodeEdgeCounts[node] * 2] = distance;
+                nodeEdges[node][nodeEdgeCounts[node] * 2 + 1] = id;
+                nodeEdgeCounts[node]++;
+                break;
+            }
+        }
+
+        // Flatten into arrays
+        this.childStarts = new int[words.length + 1];
+        this.children = new int[Math.max(0, words.length - 1)];
+        this.edges = new int[children.length];
+        int count = 0;
+        long[] sorted = new long[0];
+        for (int node = 0; node < words.length; node++) {
+            childStarts[node] = count;
+            int edgeCount = nodeEdgeCounts[node];
+            if (sorted.length < edgeCount) {
+                sorted = new long[edgeCount];
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                sorted[i] = ((long) nodeEdges[node][i * 2] << 32) | nodeEdges[node][i * 2 + 1];
+            }
+            Arrays.sort(sorted, 0, edgeCount);
+            for (int i = 0; i < edgeCount; i++) {
+                edges[count] = (int) (sorted[i] >>> 32);
+                children[count] = (int) sorted[i];
+                count++;
+            }
+            nodeEdges[node] = null;
+        }
+        childStarts[words.length] = count;
+    }
+
+    private static int findChild(int[] nodeEdges, int count, int distance) {
+        for (int i = 0; i < count; i++) {
+            if (nodeEdges[i * 2] == distance) {
+                return nodeEdges[i * 2 + 1];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds every word within the edit distance limit of the typed word.
+     *
+     * @param word      The (normalized) typed word.
+     * @param limit     The maximum edit distance.
+     * @param stats     Counters to update (nodes visited).
+     * @param collector Receives the matches, in no particular order.
+     */
+    public void search(String word, int limit, SearchStats stats, MatchCollector collector) {
+        if (words.length == 0) {
+            return;
+        }
+
+        LevenshteinDistance.Pattern pattern = LevenshteinDistance.compile(word);
+        char[] chars = store.chars();
+        int[] stack = new int[64];
+        int size = 0;
+        stack[size++] = 0;
+        long visited = 0;
+        long matches = 0;
+
+        while (size > 0) {
+            int node = stack[--size];
+            visited++;
+
+            // Only an exact distance up to limit + the largest edge can select children
+            int start = childStarts[node];
+            int end = childStarts[node + 1];
+            int maxEdge = end > start ? edges[end - 1] : 0;
+            int distance = pattern.distance(chars, store.start(words[node]), store.end(words[node]), limit + maxEdge);
+            if (distance == Integer.MAX_VALUE) {
+                continue;
+            }
+
+            if (distance <= limit) {
+                collector.collect(words[node], distance);
+                matches++;
+            }
+
+            // Visit the children allowed by the triangle inequality
+            for (int i = start; i < end; i++) {
+                if (edges[i] < distance - limit) {
+                    continue;
+                } else if (edges[i] > distance + limit) {
+                    break;
+                }
+                if (size == stack.length) {
+                    stack = Arrays.copyOf(stack, size * 2);
+                }
+                stack[size++] = children[i];
+            }
+        }
+
+        if (stats != null) {
+            stats.addVisited(visited);
+            stats.addScored(visited);
+            stats.addMatches(matches);
+        }
+    }
+
+    public int size() {
+        return words.length;
+    }
+}
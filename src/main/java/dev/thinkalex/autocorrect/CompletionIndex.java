@@ -0,0 +1,428 @@
+package dev.thinkalex.autocorrect;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CompletionIndex
+ * <p>
+ * Prefix completions (typeahead): a character trie of the dictionary, stored in flat arrays like
+ * {@link DictionaryTrie}, where every node also stores the best completions of its prefix, so looking a prefix
+ * up only walks its characters. Each node keeps up to size completions: the best ones of its children (and its
+ * own word), merged when it's built.
+ * </p>
+ * <p>
+ * Words are ranked by frequency (highest first), if frequencies were given, then by length (shortest first),
+ * then alphabetically. Inside the index, words are referred to by rank, so comparing ranks compares words.
+ * </p>
+ * <p>
+ * Completions can also fall back to fuzzy prefixes: if the typed prefix has fewer completions than asked for,
+ * the rest come from prefixes within edit distance 1 of it, found by walking the trie with one DP row per level.
+ * The walk stops at the first node within the limit on each path, as that node's completions are the best of
+ * everything below it.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+final class CompletionIndex {
+    // Fuzzy completions are at most this far from the typed prefix
+    static final int FUZZY_DISTANCE = 1;
+
+    // Edges of node n are labels / targets[firstEdges[n]..firstEdges[n + 1]], sorted by label
+    private final int[] firstEdges;
+    private final char[] labels;
+    private final int[] targets;
+
+    // Completions of node n are the ranks completions[firstCompletions[n]..firstCompletions[n + 1]], best first
+    private final int[] firstCompletions;
+    private final int[] completions;
+
+    // Ranks of the words: ranks[id] is the rank of a word, ids[rank] the word with a rank
+    private final int[] ranks;
+    private final int[] ids;
+
+    private final int size;
+    private final Map<String, Long> frequencies;
+
+    /**
+     * @param store       The dictionary.
+     * @param size        The number of completions to keep per prefix.
+     * @param frequencies The frequency of each word (may be null, to rank by length alone).
+     */
+    CompletionIndex(WordStore store, int size, Map<String, Long> frequencies) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Completion size must be at least 1!");
+        }
+        this.size = size;
+        this.frequencies = frequencies;
+
+        // Rank the words
+        Integer[] order = new Integer[store.size()];
+        long[] weights = new long[store.size()];
+        for (int id = 0; id < store.size(); id++) {
+            order[id] = id;
+            weights[id] = frequencies == null ? 0 : frequencies.getOrDefault(store.word(id), 0L);
+        }
+        Arrays.sort(order, (a, b) -> weights[a] != weights[b] ? Long.compare(weights[b], weights[a])
+                : store.length(a) != store.length(b) ? Integer.compare(store.length(a), store.length(b))
+                : Integer.compare(a, b));
+        this.ranks = new int[store.size()];
+        this.ids = new int[store.size()];
+        for (int rank = 0; rank < order.length; rank++) {
+            ids[rank] = order[rank];
+            ranks[order[rank]] = rank;
+        }
+
+        // Count the nodes (one per distinct prefix) to size the arrays
+        char[] chars = store.chars();
+        int nodes = 1;
+        for (int id = 0; id < store.size(); id++) {
+            int common = 0;
+            if (id > 0) {
+                while (common < store.length(id - 1) && common < store.length(id)
+                        && chars[store.start(id - 1) + common] == chars[store.start(id) + common]) {
+                    common++;
+                }
+            }
+            nodes += store.length(id) - common;
+        }
+
+        this.firstEdges = new int[nodes + 1];
+        this.labels = new char[nodes - 1];
+        this.targets = new int[nodes - 1];
+        this.firstCompletions = new int[nodes + 1];
+        int[] counts = new int[3];
+        int[][] completions = {new int[nodes * 2]};
+        build(store, 0, store.size(), 0, counts, completions);
+        firstEdges[nodes] = counts[1];
+        firstCompletions[nodes] = counts[2];
+        this.completions = Arrays.copyOf(completions[0], counts[2]);
+    }
+
+    /**
+     * Builds the node for the words with IDs in [start, end), which share their first depth characters.
+     *
+     * @param counts      Nodes, edges and completions created so far.
+     * @param completions The completions array (grown as needed).
+     * @return The node ID.
+     */
+    private int build(WordStore store, int start, int end, int depth, int[] counts, int[][] completions) {
+        int node = counts[0]++;
+        char[] chars = store.chars();
+
+        // Reserve this node's completions (all of its words, up to size), filled in once its children are built
+        int first = counts[2];
+        int count = Math.min(size, end - start);
+        firstCompletions[node] = first;
+        counts[2] += count;
+        if (counts[2] > completions[0].length) {
+            completions[0] = Arrays.copyOf(completions[0], Math.max(counts[2], completions[0].length * 2));
+        }
+
+        // The first word may end here (sorted input puts it first)
+        int own = -1;
+        int childrenStart = start;
+        if (start < end && store.length(start) == depth) {
+            own = ranks[start];
+            childrenStart++;
+        }
+
+        // Reserve this node's edges: one per distinct next character
+        int edge = counts[1];
+        firstEdges[node] = edge;
+        for (int id = childrenStart; id < end; id++) {
+            if (id == childrenStart || chars[store.start(id) + depth] != chars[store.start(id - 1) + depth]) {
+                counts[1]++;
+            }
+        }
+
+        // Build the children, pooling their completions (each child's are all of its words, up to size) with this node's word
+        int[] pool = new int[count * (counts[1] - edge) + 1];
+        int pooled = 0;
+        if (own >= 0) {
+            pool[pooled++] = own;
+        }
+        int childStart = childrenStart;
+        for (int id = childrenStart + 1; id <= end; id++) {
+            char label = chars[store.start(childStart) + depth];
+            if (id == end || chars[store.start(id) + depth] != label) {
+                int child = build(store, childStart, id, depth + 1, counts, completions);
+                labels[edge] = label;
+                targets[edge] = child;
+                edge++;
+                int childCount = Math.min(size, id - childStart);
+                System.arraycopy(completions[0], firstCompletions[child], pool, pooled, childCount);
+                pooled += childCount;
+                childStart = id;
+            }
+        }
+
+        // Keep the best of them
+        Arrays.sort(pool, 0, pooled);
+        System.arraycopy(pool, 0, completions[0], first, count);
+        return node;
+    }
+
+    /**
+     * Finds the best completions of a typed prefix, as ranks (see {@link #id(int)}) and their distance to it.
+     *
+     * @param prefix The (normalized) typed prefix.
+     * @param fuzzy  Whether to fall back to prefixes within {@link #FUZZY_DISTANCE} of it, if it has fewer
+     *               completions than asked for.
+     * @param top    Receives the completions; its capacity is the number asked for (at most size are kept per
+     *               prefix, so more than that doesn't get any more exact completions).
+     */
+    void complete(String prefix, boolean fuzzy, TopKSelector top) {
+        // Walk the prefix's characters
+        int node = 0;
+        for (int i = 0; i < prefix.length() && node >= 0; i++) {
+            node = child(node, prefix.charAt(i));
+        }
+        int exact = 0;
+        if (node >= 0) {
+            for (int i = firstCompletions[node]; i < firstCompletions[node + 1]; i++) {
+                top.offer(completions[i], 0);
+                exact++;
+            }
+        }
+
+        // Top up with fuzzy prefixes if the prefix has fewer completions than asked for
+        if (fuzzy && exact < Math.min(top.capacity(), size)) {
+            completeFuzzy(prefix, node, top);
+        }
+    }
+
+    /**
+     * Returns the child of a node along an edge, or -1 if it has none.
+     */
+    private int child(int node, char c) {
+        for (int edge = firstEdges[node]; edge < firstEdges[node + 1]; edge++) {
+            if (labels[edge] == c) {
+                return targets[edge];
+            } else if (labels[edge] > c) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the completions of the prefixes within {@link #FUZZY_DISTANCE} of the typed prefix, other than those
+     * of the typed prefix itself.
+     *
+     * @param exact The node of the typed prefix (-1 if it has none), whose completions were added already.
+     */
+    private void completeFuzzy(String prefix, int exact, TopKSelector top) {
+        int m = prefix.length();
+        int width = m + 1;
+
+        // The root is within the limit for short enough prefixes (every word is then a fuzzy completion)
+        if (m <= FUZZY_DISTANCE) {
+            offerFuzzy(0, m, exact, top);
+            return;
+        }
+
+        // DP rows per depth (no path more than FUZZY_DISTANCE longer than the prefix can be within the limit)
+        int maxDepth = m + FUZZY_DISTANCE;
+        int[] rows = new int[(maxDepth + 1) * width];
+        for (int i = 0; i <= m; i++) {
+            rows[i] = i;
+        }
+        int[] nodeStack = new int[maxDepth + 1];
+        int[] edgeStack = new int[maxDepth + 1];
+        int depth = 0;
+        nodeStack[0] = 0;
+        edgeStack[0] = firstEdges[0];
+
+        while (depth >= 0) {
+            int node = nodeStack[depth];
+            int edge = edgeStack[depth];
+            if (edge == firstEdges[node + 1]) {
+                depth--;
+                continue;
+            }
+            edgeStack[depth]++;
+
+            // Calculate this node's row from its parent's
+            char c = labels[edge];
+            int previous = depth * width;
+            int current = previous + width;
+            rows[current] = depth + 1;
+            int min = rows[current];
+            for (int i = 1; i <= m; i++) {
+                int value;
+                if (prefix.charAt(i - 1) == c) {
+                    value = rows[previous + i - 1];
+                } else {
+                    value = Math.min(rows[previous + i - 1], Math.min(rows[previous + i], rows[current + i - 1])) + 1;
+                }
+                rows[current + i] = value;
+                min = Math.min(min, value);
+            }
+
+            // Prune the subtree if the minimum edit distance is greater than the limit
+            if (min > FUZZY_DISTANCE) {
+                continue;
+            }
+
+            // Within the limit: its completions are the best of its subtree, so there's no need to go further
+            int target = targets[edge];
+            if (rows[current + m] <= FUZZY_DISTANCE) {
+                if (target != exact) {
+                    offerFuzzy(target, rows[current + m], exact, top);
+                }
+                continue;
+            }
+
+            depth++;
+            nodeStack[depth] = target;
+            edgeStack[depth] = firstEdges[target];
+        }
+    }
+
+    /**
+     * Adds the completions of a fuzzy prefix, except the typed prefix's own (its node can be below this one).
+     */
+    private void offerFuzzy(int node, int distance, int exact, TopKSelector top) {
+        for (int i = firstCompletions[node]; i < firstCompletions[node + 1]; i++) {
+            if (exact < 0 || !contains(exact, completions[i])) {
+                top.offer(completions[i], distance);
+            }
+        }
+    }
+
+    private boolean contains(int node, int rank) {
+        for (int i = firstCompletions[node]; i < firstCompletions[node + 1]; i++) {
+            if (completions[i] == rank) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calculates the edit distance between a typed prefix and the closest prefix of a word (for the words which
+     * aren't in the index).
+     *
+     * @param store  The words.
+     * @param id     The ID of the word.
+     * @param prefix The (normalized) typed prefix.
+     * @param limit  The maximum edit distance.
+     * @return The edit distance, or Integer.MAX_VALUE if it's greater than the limit.
+     */
+    static int prefixDistance(WordStore store, int id, String prefix, int limit) {
+        int m = prefix.length();
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int i = 0; i <= m; i++) {
+            previous[i] = i;
+        }
+
+        // One row per character of the word, keeping the best distance to the whole prefix
+        char[] chars = store.chars();
+        int best = m;
+        for (int j = 1; j <= store.length(id) && best > 0; j++) {
+            char c = chars[store.start(id) + j - 1];
+            current[0] = j;
+            int min = j;
+            for (int i = 1; i <= m; i++) {
+                current[i] = prefix.charAt(i - 1) == c ? previous[i - 1]
+                        : Math.min(previous[i - 1], Math.min(previous[i], current[i - 1])) + 1;
+                min = Math.min(min, current[i]);
+            }
+            best = Math.min(best, current[m]);
+            if (min > limit) {
+                break;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return best <= limit ? best : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Reads word frequencies from a text file, with a word and its count on each line (separated by whitespace).
+     * Words are normalized, and the counts of words listed more than once are added up.
+     *
+     * @param path The frequency file.
+     * @return The frequency of each listed word.
+     */
+    static Map<String, Long> readFrequencies(Path path) {
+        Map<String, Long> frequencies = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 1 && fields[0].isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (fields.length != 2) {
+                        throw new NumberFormatException();
+                    }
+                    frequencies.merge(WordStore.normalize(fields[0]), Long.parseLong(fields[1]), Long::sum);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Line " + number + " of " + path + " must be a word and its count!");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return frequencies;
+    }
+
+    /**
+     * Returns the ID of the word with a rank.
+     */
+    int id(int rank) {
+        return ids[rank];
+    }
+
+    /**
+     * Returns the frequency of a (normalized) word, 0 if it has none.
+     */
+    long weight(String word) {
+        return frequencies == null ? 0 : frequencies.getOrDefault(word, 0L);
+    }
+
+    /**
+     * Returns the number of completions kept per prefix.
+     */
+    int size() {
+        return size;
+    }
+
+    Map<String, Long> frequencies() {
+        return frequencies;
+    }
+
+    public int getNodeCount() {
+        return firstCompletions.length - 1;
+    }
+
+    public int getCompletionCount() {
+        return completions.length;
+    }
+
+    /**
+     * Estimates the heap used by the index (not counting the frequencies, which are shared).
+     *
+     * @return The approximate number of bytes held by its arrays.
+     */
+    public long estimatedBytes() {
+        return SymSpellIndex.arrayBytes(firstEdges.length, 4) + SymSpellIndex.arrayBytes(labels.length, 2)
+                + SymSpellIndex.arrayBytes(targets.length, 4) + SymSpellIndex.arrayBytes(firstCompletions.length, 4)
+                + SymSpellIndex.arrayBytes(completions.length, 4) + SymSpellIndex.arrayBytes(ranks.length, 4)
+                + SymSpellIndex.arrayBytes(ids.length, 4);
+    }
+}
@@ -0,0 +1,50 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.List;
+
+/**
+ * Correction
+ * <p>
+ * A misspelled token found in a document, with its position and the suggestions for it.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public class Correction {
+    private final String word;
+    private final int start;
+    private final int end;
+    private final List<String> suggestions;
+
+    public Correction(String word, int start, int end, List<String> suggestions) {
+        this.word = word;
+        this.start = start;
+        this.end = end;
+        this.suggestions = suggestions;
+    }
+
+    /**
+     * Returns the token, as it was written.
+     */
+    public String getWord() {
+        return word;
+    }
+
+    /**
+     * Returns the offset of the token's first character in the text (or, for a list of tokens, its index).
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the offset after the token's last character in the text (or, for a list of tokens, its index + 1).
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    public List<String> getSuggestions() {
+        return suggestions;
+    }
+}
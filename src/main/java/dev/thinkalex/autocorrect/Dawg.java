@@ -0,0 +1,314 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Dawg
+ * <p>
+ * Minimized acyclic automaton (directed acyclic word graph) of the dictionary, stored in flat arrays.
+ * Words sharing a prefix share states, and so do words sharing a suffix, so the whole dictionary
+ * becomes a graph of a few hundred thousand edges.
+ * </p>
+ * <p>
+ * Searches intersect the graph with a Levenshtein automaton for the typed word, simulated with
+ * one bitmask per number of errors (bit i of mask d: the first i typed characters are within d edits
+ * of the current path). A branch is dropped as soon as the last mask is empty, so the cost of a query
+ * depends on the typed word and the edit distance rather than on the size of the dictionary.
+ * </p>
+ * <p>
+ * Each edge also stores how many words sort before the ones reached through it (a numbered automaton),
+ * so the ID of a word in the {@link WordStore} is the sum of the edges along its path.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public class Dawg {
+    // Longest typed word the bit-parallel automaton supports (bits 0..length must fit in a long)
+    static final int MAX_WORD_LENGTH = Long.SIZE - 1;
+
+    // Edges of state s are labels / targets[firstEdges[s]..firstEdges[s + 1]], sorted by label
+    private final int[] firstEdges;
+    private final char[] labels;
+    private final int[] targets;
+    private final boolean[] finals;
+
+    // Words (of the state the edge leaves) sorting before the words reached through the edge
+    private final int[] edgeRanks;
+
+    // Longest word in the graph
+    private final int maxDepth;
+
+    public Dawg(WordStore store) {
+        // Build (Daciuk et al., incremental construction from sorted input)
+        HashMap<BuildState, BuildState> register = new HashMap<>();
+        BuildState root = new BuildState();
+        List<BuildState> path = new ArrayList<>();
+        path.add(root);
+        String previous = "";
+        int maxDepth = 0;
+        for (String word : store) {
+            // Minimize the previous word's suffix, which can't change anymore
+            int common = 0;
+            while (common < word.length() && common < previous.length() && word.charAt(common) == previous.charAt(common)) {
+                common++;
+            }
+            minimize(path, common, register);
+
+            // Add the rest of this word
+            BuildState state = path.get(common);
+            for (int i = common; i < word.length(); i++) {
+                BuildState next = new BuildState();
+                state.addEdge(word.charAt(i), next);
+                path.add(next);
+                state = next;
+            }
+            state.isFinal = true;
+
+            previous = word;
+            maxDepth = Math.max(maxDepth, word.length());
+        }
+        minimize(path, 0, register);
+        this.maxDepth = maxDepth;
+
+        // Number the states (root first) and flatten them
+        List<BuildState> states = new ArrayList<>();
+        root.id = 0;
+        states.add(root);
+        int edgeCount = 0;
+        for (int i = 0; i < states.size(); i++) {
+            BuildState state = states.get(i);
+            edgeCount += state.edgeCount;
+            for (int e = 0; e < state.edgeCount; e++) {
+                if (state.targets[e].id < 0) {
+                    state.targets[e].id = states.size();
+                    states.add(state.targets[e]);
+                }
+            }
+        }
+
+        this.firstEdges = new int[states.size() + 1];
+        this.labels = new char[edgeCount];
+        this.targets = new int[edgeCount];
+        this.finals = new boolean[states.size()];
+        this.edgeRanks = new int[edgeCount];
+        int edge = 0;
+        for (int s = 0; s < states.size(); s++) {
+            BuildState state = states.get(s);
+            firstEdges[s] = edge;
+            finals[s] = state.isFinal;
+            for (int e = 0; e < state.edgeCount; e++) {
+                labels[edge] = state.labels[e];
+                targets[edge] = state.targets[e].id;
+                edge++;
+            }
+        }
+        firstEdges[states.size()] = edge;
+
+        // Number the edges (the graph is only as deep as the longest word, so recursion is fine)
+        int[] wordCounts = new int[states.size()];
+        Arrays.fill(wordCounts, -1);
+        countWords(0, wordCounts);
+    }
+
+    /**
+     * Counts the words accepted from a state, filling in the ranks of its edges.
+     */
+    private int countWords(int state, int[] wordCounts) {
+        if (wordCounts[state] >= 0) {
+            return wordCounts[state];
+        }
+
+        int rank = finals[state] ? 1 : 0;
+        for (int e = firstEdges[state]; e < firstEdges[state + 1]; e++) {
+            edgeRanks[e] = rank;
+            rank += countWords(targets[e], wordCounts);
+        }
+        wordCounts[state] = rank;
+        return rank;
+    }
+
+    /**
+     * Replaces the states of the path deeper than depth by their registered equivalents (or registers them).
+     */
+    private static void minimize(List<BuildState> path, int depth, HashMap<BuildState, BuildState> register) {
+        for (int i = path.size() - 1; i > depth; i--) {
+            BuildState state = path.get(i);
+            BuildState parent = path.get(i - 1);
+            BuildState existing = register.putIfAbsent(state, state);
+            if (existing != null) {
+                parent.targets[parent.edgeCount - 1] = existing;
+            }
+            path.remove(i);
+        }
+    }
+
+    /**
+     * Checks if this automaton can search for a given typed word.
+     *
+     * @param word The typed word.
+     * @return True if the word is short enough for the bit-parallel automaton.
+     */
+    public static boolean supports(String word) {
+        return word.length() <= MAX_WORD_LENGTH;
+    }
+
+    /**
+     * Finds every word within the edit distance limit of the typed word, in ID (alphabetical) order.
+     *
+     * @param word      The (normalized) typed word, at most MAX_WORD_LENGTH characters.
+     * @param limit     The maximum edit distance.
+     * @param stats     Counters to update (states visited).
+     * @param collector Receives the matches.
+     */
+    public void search(String word, int limit, SearchStats stats, MatchCollector collector) {
+        LevenshteinDistance.Pattern pattern = LevenshteinDistance.compile(word);
+        int m = pattern.length();
+        long accept = 1L << m;
+        long all = accept | (accept - 1);
+        int width = limit + 1;
+
+        // Automaton state per depth: masks[depth * width + d]
+        long[] masks = new long[(maxDepth + 1) * width];
+        for (int d = 0; d < width; d++) {
+            // With no characters read, the first i typed characters are i edits away
+            masks[d] = d >= m ? all : (1L << (d + 1)) - 1;
+        }
+
+        // Depth-first search, with the next edge to try at each depth
+        int[] stateStack = new int[maxDepth + 1];
+        int[] edgeStack = new int[maxDepth + 1];
+        int[] rankStack = new int[maxDepth + 1];
+        int depth = 0;
+        stateStack[0] = 0;
+        edgeStack[0] = firstEdges[0];
+        long visited = 1;
+        long matches = 0;
+
+        // The empty word
+        if (finals[0] && (masks[limit] & accept) != 0) {
+            collector.collect(0, acceptedDistance(masks, 0, width, accept));
+            matches++;
+        }
+
+        while (depth >= 0) {
+            int state = stateStack[depth];
+            int edge = edgeStack[depth];
+            if (edge == firstEdges[state + 1]) {
+                depth--;
+                continue;
+            }
+            edgeStack[depth]++;
+            visited++;
+
+            // Step the automaton over this edge's character
+            char c = labels[edge];
+            long match = pattern.mask(c) << 1;
+            int from = depth * width;
+            int to = from + width;
+            masks[to] = (masks[from] << 1) & match & all;
+            for (int d = 1; d < width; d++) {
+                masks[to + d] = (((masks[from + d] << 1) & match)
+                        | masks[from + d - 1]
+                        | (masks[from + d - 1] << 1)
+                        | (masks[to + d - 1] << 1)) & all;
+            }
+
+            // Drop the branch if nothing is within the limit anymore
+            if (masks[to + limit] == 0) {
+                continue;
+            }
+
+            int target = targets[edge];
+            int rank = rankStack[depth] + edgeRanks[edge];
+            if (finals[target] && (masks[to + limit] & accept) != 0) {
+                collector.collect(rank, acceptedDistance(masks, to, width, accept));
+                matches++;
+            }
+
+            depth++;
+            stateStack[depth] = target;
+            edgeStack[depth] = firstEdges[target];
+            rankStack[depth] = rank;
+        }
+
+        if (stats != null) {
+            stats.addVisited(visited);
+            stats.addMatches(matches);
+        }
+    }
+
+    private static int acceptedDistance(long[] masks, int offset, int width, long accept) {
+        int d = 0;
+        while ((masks[offset + d] & accept) == 0) {
+            d++;
+        }
+        return d;
+    }
+
+    public int getStateCount() {
+        return finals.length;
+    }
+
+    public int getEdgeCount() {
+        return labels.length;
+    }
+
+    /**
+     * Estimates the heap used by the automaton.
+     *
+     * @return The approximate number of bytes held by its arrays.
+     */
+    public long estimatedBytes() {
+        return SymSpellIndex.arrayBytes(firstEdges.length, 4) + SymSpellIndex.arrayBytes(labels.length, 2)
+                + SymSpellIndex.arrayBytes(targets.length, 4) + SymSpellIndex.arrayBytes(finals.length, 1)
+                + SymSpellIndex.arrayBytes(edgeRanks.length, 4);
+    }
+
+    /**
+     * A state under construction. Once registered, states are never modified, so they can be compared
+     * (and hashed) by their finality and outgoing edges, with targets compared by identity.
+     */
+    private static class BuildState {
+        char[] labels = new char[2];
+        BuildState[] targets = new BuildState[2];
+        int edgeCount;
+        boolean isFinal;
+        int id = -1;
+
+        void addEdge(char label, BuildState target) {
+            if (edgeCount == labels.length) {
+                labels = Arrays.copyOf(labels, edgeCount * 2);
+                targets = Arrays.copyOf(targets, edgeCount * 2);
+            }
+            labels[edgeCount] = label;
+            targets[edgeCount] = target;
+            edgeCount++;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BuildState other) || other.isFinal != isFinal || other.edgeCount != edgeCount) {
+                return false;
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                if (labels[i] != other.labels[i] || targets[i] != other.targets[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = isFinal ? 1 : 0;
+            for (int i = 0; i < edgeCount; i++) {
+                hash = hash * 31 + labels[i];
+                hash = hash * 31 + System.identityHashCode(targets[i]);
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Map;
+
+/**
+ * DictionaryIndex
+ * <p>
+ * A dictionary and its candidate indexes. The words never change: adding or removing words builds a new
+ * DictionaryIndex (see {@link Autocorrect#addWord(String)}). Each index is built the first time a query
+ * needs it, at most once, and only read after that, so any number of queries can share them. The planner
+ * profiles each one as it's built (see {@link QueryPlanner}), so queries never wait for that either.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+final class DictionaryIndex {
+    private final WordStore words;
+    private final int maxDistance;
+
+    // Candidate indexes (immutable once built; the ones no query has asked for yet are built on first use)
+    private volatile TrigramIndex tokens;
+    private volatile SymSpellIndex symSpellIndex;
+    private volatile BKTree bkTree;
+    private volatile Dawg dawg;
+    private volatile DictionaryTrie trie;
+
+    // Prefix completions (built on the first completion, and again if their size or frequencies change)
+    private volatile CompletionIndex completions;
+
+    // Picks a strategy per query for AUTO (from statistics of the indexes above, taken as they're built)
+    private final QueryPlanner planner = new QueryPlanner(this);
+
+    /**
+     * @param words       The dictionary.
+     * @param tokens      Its trigram index, if it was loaded from an index file (may be null).
+     * @param maxDistance The edit distance to build the delete index for.
+     */
+    DictionaryIndex(WordStore words, TrigramIndex tokens, int maxDistance) {
+        this.words = words;
+        this.tokens = tokens;
+        this.maxDistance = maxDistance;
+        if (tokens != null) {
+            planner.profile(SearchStrategy.TRIGRAM);
+        }
+    }
+
+    WordStore words() {
+        return words;
+    }
+
+    int maxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Builds the index a strategy searches with, if it hasn't been built yet.
+     */
+    void prepare(SearchStrategy strategy) {
+        switch (strategy) {
+            case TRIGRAM -> getTrigramIndex();
+            case SYMSPELL -> getSymSpellIndex();
+            case BK_TREE -> getBKTree();
+            case DAWG -> getDawg();
+            case TRIE -> getTrie();
+            case AUTO -> {
+                getTrigramIndex();
+                getDawg();
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Checks if the index a strategy searches with has been built (LINEAR needs none).
+     */
+    boolean isBuilt(SearchStrategy strategy) {
+        return switch (strategy) {
+            case LINEAR -> true;
+            case TRIGRAM -> tokens != null;
+            case SYMSPELL -> symSpellIndex != null;
+            case BK_TREE -> bkTree != null;
+            case DAWG -> dawg != null;
+            case TRIE -> trie != null;
+            case AUTO -> false;
+        };
+    }
+
+    QueryPlanner planner() {
+        return planner;
+    }
+
+    TrigramIndex getTrigramIndex() {
+        TrigramIndex index = tokens;
+        if (index == null) {
+            synchronized (this) {
+                index = tokens;
+                if (index == null) {
+                    tokens = index = new TrigramIndex(words);
+                    planner.profile(SearchStrategy.TRIGRAM);
+                }
+            }
+        }
+        return index;
+    }
+
+    SymSpellIndex getSymSpellIndex() {
+        // Built for the configured edit distance (deletes grow quickly with the distance)
+        SymSpellIndex index = symSpellIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = symSpellIndex;
+                if (index == null) {
+                    symSpellIndex = index = new SymSpellIndex(words, maxDistance);
+                    planner.profile(SearchStrategy.SYMSPELL);
+                }
+            }
+        }
+        return index;
+    }
+
+    BKTree getBKTree() {
+        BKTree index = bkTree;
+        if (index == null) {
+            synchronized (this) {
+                index = bkTree;
+                if (index == null) {
+                    bkTree = index = new BKTree(words);
+                    planner.profile(SearchStrategy.BK_TREE);
+                }
+            }
+        }
+        return index;
+    }
+
+    Dawg getDawg() {
+        Dawg index = dawg;
+        if (index == null) {
+            synchronized (this) {
+                index = dawg;
+                if (index == null) {
+                    dawg = index = new Dawg(words);
+                    planner.profile(SearchStrategy.DAWG);
+                }
+            }
+        }
+        return index;
+    }
+
+    DictionaryTrie getTrie() {
+        DictionaryTrie index = trie;
+        if (index == null) {
+            synchronized (this) {
+                index = trie;
+                if (index == null) {
+                    trie = index = new DictionaryTrie(words);
+                    planner.profile(SearchStrategy.TRIE);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the completion index, building it if it hasn't been built with these settings yet.
+     *
+     * @param size        The number of completions to keep per prefix.
+     * @param frequencies The frequency of each word (may be null).
+     */
+    CompletionIndex getCompletionIndex(int size, Map<String, Long> frequencies) {
+        CompletionIndex index = completions;
+        if (index == null || index.size() != size || index.frequencies() != frequencies) {
+            synchronized (this) {
+                index = completions;
+                if (index == null || index.size() != size || index.frequencies() != frequencies) {
+                    completions = index = new CompletionIndex(words, size, frequencies);
+                }
+            }
+        }
+        return index;
+    }
+
+    // Indexes which were built already (null otherwise), for reports
+    TrigramIndex builtTrigramIndex() {
+        return tokens;
+    }
+
+    SymSpellIndex builtSymSpellIndex() {
+        return symSpellIndex;
+    }
+
+    Dawg builtDawg() {
+        return dawg;
+    }
+
+    DictionaryTrie builtTrie() {
+        return trie;
+    }
+
+    CompletionIndex builtCompletionIndex() {
+        return completions;
+    }
+}
@@ -0,0 +1,258 @@
+package dev.thinkalex.autocorrect;
+
+/**
+ * DictionaryTrie
+ * <p>
+ * Character trie of the dictionary, stored in flat arrays with nodes numbered in preorder. Terminal nodes
+ * store the ID of their word in the {@link WordStore}.
+ * </p>
+ * <p>
+ * Searches walk the trie depth-first, carrying one row of the edit distance matrix per level: the row
+ * of a node is computed from its parent's row, so every shared prefix is only scored once. As in
+ * {@link LevenshteinDistance}, a row whose minimum is over the limit can't lead to a match, and here
+ * that prunes the whole subtree.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public class DictionaryTrie {
+    // Edges of node n are labels / targets[firstEdges[n]..firstEdges[n + 1]], sorted by label
+    private final int[] firstEdges;
+    private final char[] labels;
+    private final int[] targets;
+    private final int[] wordIds;
+
+    // Longest word in the trie
+    private final int maxDepth;
+
+    public DictionaryTrie(WordStore store) {
+        // Count the nodes (one per distinct prefix) to size the arrays
+        char[] chars = store.chars();
+        int nodes = 1;
+        for (int id = 0; id < store.size(); id++) {
+            int common = 0;
+            if (id > 0) {
+                while (common < store.length(id - 1) && common < store.length(id)
+                        && chars[store.start(id - 1) + common] == chars[store.start(id) + common]) {
+                    common++;
+                }
+            }
+            nodes += store.length(id) - common;
+        }
+        this.maxDepth = store.getMaxLength();
+
+        this.firstEdges = new int[nodes + 1];
+        this.labels = new char[nodes - 1];
+        this.targets = new int[nodes - 1];
+        this.wordIds = new int[nodes];
+        int[] counts = new int[2];
+        build(store, 0, store.size(), 0, counts);
+        firstEdges[nodes] = counts[1];
+    }
+
+    /**
+     * Builds the node for the words with IDs in [start, end), which share their first depth characters.
+     *
+     * @param counts Nodes and edges created so far.
+     * @return The node ID.
+     */
+    private int build(WordStore store, int start, int end, int depth, int[] counts) {
+        int node = counts[0]++;
+        char[] chars = store.chars();
+
+        // The first word may end here (sorted input puts it first)
+        wordIds[node] = -1;
+        if (start < end && store.length(start) == depth) {
+            wordIds[node] = start;
+            start++;
+        }
+
+        // Reserve this node's edges: one per distinct next character
+        int edge = counts[1];
+        firstEdges[node] = edge;
+        for (int id = start; id < end; id++) {
+            if (id == start || chars[store.start(id) + depth] != chars[store.start(id - 1) + depth]) {
+                counts[1]++;
+            }
+        }
+
+        // Build the children
+        int childStart = start;
+        for (int id = start + 1; id <= end; id++) {
+            char label = chars[store.start(childStart) + depth];
+            if (id == end || chars[store.start(id) + depth] != label) {
+                labels[edge] = label;
+                targets[edge] = build(store, childStart, id, depth + 1, counts);
+                edge++;
+                childStart = id;
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * Finds every word within the edit distance limit of the typed word, in ID (alphabetical) order.
+     *
+     * @param word      The (normalized) typed word.
+     * @param limit     The maximum edit distance.
+     * @param stats     Counters to update (nodes visited).
+     * @param collector Receives the matches.
+     */
+    public void search(String word, int limit, SearchStats stats, MatchCollector collector) {
+        int m = word.length();
+        int width = m + 1;
+
+        // DP rows per depth: rows[depth * width + i] = distance between the path and the first i typed characters
+        int[] rows = new int[(maxDepth + 1) * width];
+        for (int i = 0; i <= m; i++) {
+            rows[i] = i;
+        }
+
+        int[] nodeStack = new int[maxDepth + 1];
+        int[] edgeStack = new int[maxDepth + 1];
+        int depth = 0;
+        nodeStack[0] = 0;
+        edgeStack[0] = firstEdges[0];
+        long visited = 1;
+        long matches = 0;
+
+        // The empty word
+        if (wordIds[0] >= 0 && m <= limit) {
+            collector.collect(wordIds[0], m);
+            matches++;
+        }
+
+        while (depth >= 0) {
+            int node = nodeStack[depth];
+            int edge = edgeStack[depth];
+            if (edge == firstEdges[node + 1]) {
+                depth--;
+                continue;
+            }
+            edgeStack[depth]++;
+            visited++;
+
+            // Calculate this node's row from its parent's
+            char c = labels[edge];
+            int previous = depth * width;
+            int current = previous + width;
+            rows[current] = depth + 1;
+            int min = rows[current];
+            for (int i = 1; i <= m; i++) {
+                int value;
+                if (word.charAt(i - 1) == c) {
+                    value = rows[previous + i - 1];
+                } else {
+                    value = Math.min(rows[previous + i - 1], Math.min(rows[previous + i], rows[current + i - 1])) + 1;
+                }
+                rows[current + i] = value;
+                min = Math.min(min, value);
+            }
+
+            // Prune the subtree if the minimum edit distance is greater than the limit
+            if (min > limit) {
+                continue;
+            }
+
+            int target = targets[edge];
+            if (wordIds[target] >= 0 && rows[current + m] <= limit) {
+                collector.collect(wordIds[target], rows[current + m]);
+                matches++;
+            }
+
+            depth++;
+            nodeStack[depth] = target;
+            edgeStack[depth] = firstEdges[target];
+        }
+
+        if (stats != null) {
+            stats.addVisited(visited);
+            stats.addMatches(matches);
+        }
+    }
+
+    // Active nodes (incremental search): the nodes whose path is within the limit of the typed prefix
+
+    /**
+     * Finds the active nodes of the empty prefix: every node at most limit deep (its distance is its depth).
+     *
+     * @param limit The maximum edit distance.
+     * @param nodes Receives the active nodes and their distances.
+     */
+    void initialActiveNodes(int limit, MatchCollector nodes) {
+        nodes.collect(0, 0);
+        collectDescendants(0, 0, limit, nodes);
+    }
+
+    private void collectDescendants(int node, int depth, int limit, MatchCollector nodes) {
+        if (depth == limit) {
+            return;
+        }
+        for (int edge = firstEdges[node]; edge < firstEdges[node + 1]; edge++) {
+            nodes.collect(targets[edge], depth + 1);
+            collectDescendants(targets[edge], depth + 1, limit, nodes);
+        }
+    }
+
+    /**
+     * Extends an active node of a typed prefix by one typed character. The active nodes of the longer prefix
+     * are what this reports for every active node of the shorter one (keeping each node's smallest distance),
+     * followed by what {@link #deletedActiveNodes} reports for them.
+     *
+     * @param node     An active node of the typed prefix.
+     * @param distance Its distance to the typed prefix.
+     * @param c        The typed character.
+     * @param limit    The maximum edit distance.
+     * @param nodes    Receives active nodes of the longer prefix (maybe more than once) and their distances.
+     */
+    void nextActiveNodes(int node, int distance, char c, int limit, MatchCollector nodes) {
+        // The typed character was inserted
+        if (distance < limit) {
+            nodes.collect(node, distance + 1);
+        }
+
+        // It matches, or replaces, a child's character
+        for (int edge = firstEdges[node]; edge < firstEdges[node + 1]; edge++) {
+            if (labels[edge] == c) {
+                nodes.collect(targets[edge], distance);
+            } else if (distance < limit) {
+                nodes.collect(targets[edge], distance + 1);
+            }
+        }
+    }
+
+    /**
+     * Reports the children of an active node as active, their character having been deleted from the typed
+     * prefix. Applied to the active nodes in increasing order of distance, this finds the rest of them.
+     */
+    void deletedActiveNodes(int node, int distance, int limit, MatchCollector nodes) {
+        if (distance >= limit) {
+            return;
+        }
+        for (int edge = firstEdges[node]; edge < firstEdges[node + 1]; edge++) {
+            nodes.collect(targets[edge], distance + 1);
+        }
+    }
+
+    /**
+     * Returns the ID of the word ending at a node, or -1 if none does.
+     */
+    int wordId(int node) {
+        return wordIds[node];
+    }
+
+    public int getNodeCount() {
+        return wordIds.length;
+    }
+
+    /**
+     * Estimates the heap used by the trie.
+     *
+     * @return The approximate number of bytes held by its arrays.
+     */
+    public long estimatedBytes() {
+        return SymSpellIndex.arrayBytes(firstEdges.length, 4) + SymSpellIndex.arrayBytes(labels.length, 2)
+                + SymSpellIndex.arrayBytes(targets.length, 4) + SymSpellIndex.arrayBytes(wordIds.length, 4);
+    }
+}
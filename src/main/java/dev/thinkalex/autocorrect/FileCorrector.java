@@ -0,0 +1,279 @@
+package dev.thinkalex.autocorrect;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * FileCorrector
+ * <p>
+ * Corrects text files of any size, for batch jobs. The input is memory-mapped and split into chunks on word
+ * boundaries, which are corrected in parallel. The results are written in order, with only a few chunks in
+ * flight at a time, so memory use depends on the chunk size and not on the file's size.
+ * </p>
+ * <p>
+ * The output is either the corrected text (each misspelling replaced by its top suggestion, keeping its
+ * capitalization, or left as is if there's none), or, for a dry run, a report of the misspellings: one line per
+ * occurrence with its character offset in the input, the word and its suggestions, separated by tabs. The input
+ * must be UTF-8 (malformed bytes are replaced).
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class FileCorrector {
+    // A chunk is decoded from a single mapping, which can't be larger than this
+    static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    private final Autocorrect autocorrect;
+    private final QueryOptions options;
+    private final long chunkSize;
+    private final int threads;
+
+    /**
+     * The totals of a run.
+     */
+    public static final class Summary {
+        private final long bytes;
+        private final long words;
+        private final long misspellings;
+        private final double seconds;
+
+        Summary(long bytes, long words, long misspellings, double seconds) {
+            this.bytes = bytes;
+            this.words = words;
+            this.misspellings = misspellings;
+            this.seconds = seconds;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getWords() {
+            return words;
+        }
+
+        public long getMisspellings() {
+            return misspellings;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        public double getWordsPerSecond() {
+            return seconds == 0 ? 0 : words / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d words (%d misspelled, %.1f MB) in %.2fs: %.0f words/s", words, misspellings,
+                    bytes / 1e6, seconds, getWordsPerSecond());
+        }
+    }
+
+    /**
+     * A corrected chunk: its text, words and misspellings.
+     */
+    private static final class Chunk {
+        final CharBuffer text;
+        final int words;
+        final List<Correction> corrections;
+
+        Chunk(CharBuffer text, int words, List<Correction> corrections) {
+            this.text = text;
+            this.words = words;
+            this.corrections = corrections;
+        }
+    }
+
+    /**
+     * @param autocorrect The service to correct with.
+     * @param options     The settings of every query (dictionary words are always skipped).
+     * @param chunkSize   The approximate size of each chunk, in bytes (chunks end at the next word boundary, or at
+     *                    {@link #MAX_CHUNK_SIZE} within a longer word; larger sizes are capped there too).
+     * @param threads     The number of chunks corrected at once.
+     */
+    public FileCorrector(Autocorrect autocorrect, QueryOptions options, long chunkSize, int threads) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1!");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1!");
+        }
+        this.autocorrect = autocorrect;
+        this.options = options;
+        this.chunkSize = Math.min(chunkSize, MAX_CHUNK_SIZE);
+        this.threads = threads;
+    }
+
+    /**
+     * Corrects a file.
+     *
+     * @param input  The text to correct.
+     * @param output Receives the corrected text, or the misspelling report.
+     * @param dryRun Whether to only write the misspelling report.
+     */
+    public Summary correct(Path input, Path output, boolean dryRun) throws IOException {
+        long startTime = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "autocorrect-file");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+             BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            long size = channel.size();
+
+            // Keep twice as many chunks in flight as there are threads (so they never wait for the writer), and
+            // write them in order
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            long position = 0;
+            long offset = 0;
+            long words = 0;
+            long misspellings = 0;
+            while (position < size || !pending.isEmpty()) {
+                while (position < size && pending.size() < threads * 2) {
+                    long end = boundary(channel, Math.min(size, position + chunkSize),
+                            Math.min(size, position + MAX_CHUNK_SIZE), size);
+                    MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+                    pending.add(pool.submit(() -> correctChunk(bytes)));
+                    position = end;
+                }
+
+                Chunk chunk = get(pending.remove());
+                if (dryRun) {
+                    writeReport(writer, chunk, offset);
+                } else {
+                    writeCorrected(writer, chunk);
+                }
+                offset += chunk.text.length();
+                words += chunk.words;
+                misspellings += chunk.corrections.size();
+            }
+            return new Summary(size, words, misspellings, (System.nanoTime() - startTime) / 1e9);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Chunk correctChunk(MappedByteBuffer bytes) throws CharacterCodingException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer text = decoder.decode(bytes);
+        IdList bounds = Autocorrect.tokenize(text);
+
+        // Correct on this thread: the pool's threads are already all the parallelism a run gets
+        return new Chunk(text, bounds.size() / 2, autocorrect.correctText(text, bounds, options, false));
+    }
+
+    /**
+     * Returns the first word boundary at or after a position: a byte which is neither a letter, an apostrophe,
+     * nor part of a multi-byte character (so a chunk never splits a word or a character). If there's none before
+     * the limit (the end of the largest chunk a single mapping can hold), the word is split at the limit instead,
+     * at the start of a character.
+     */
+    static long boundary(FileChannel channel, long position, long limit, long size) throws IOException {
+        long end = position;
+        while (end < limit) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, end, Math.min(limit - end, 1 << 16));
+            for (int i = 0; i < window.limit(); i++) {
+                byte b = window.get(i);
+                if (b >= 0 && b != '\'' && !Character.isLetter(b)) {
+                    return end + i;
+                }
+            }
+            end += window.limit();
+        }
+        if (limit >= size) {
+            return size;
+        }
+
+        // Step back over (at most 3) continuation bytes to the start of the character at the limit
+        ByteBuffer next = ByteBuffer.allocate(1);
+        for (int i = 0; i < 3 && limit > position; i++) {
+            next.clear();
+            channel.read(next, limit);
+            if ((next.get(0) & 0xC0) != 0x80) {
+                break;
+            }
+            limit--;
+        }
+        return limit;
+    }
+
+    private static Chunk get(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted!", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof UncheckedIOException cause) {
+                throw cause.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void writeCorrected(Writer writer, Chunk chunk) throws IOException {
+        int written = 0;
+        for (Correction correction : chunk.corrections) {
+            if (correction.getSuggestions() == null || correction.getSuggestions().isEmpty()) {
+                continue;
+            }
+            writer.append(chunk.text, written, correction.getStart());
+            writer.write(matchCase(correction.getWord(), correction.getSuggestions().get(0)));
+            written = correction.getEnd();
+        }
+        writer.append(chunk.text, written, chunk.text.length());
+    }
+
+    private static void writeReport(Writer writer, Chunk chunk, long offset) throws IOException {
+        for (Correction correction : chunk.corrections) {
+            writer.write(Long.toString(offset + correction.getStart()));
+            writer.write('\t');
+            writer.write(correction.getWord());
+            writer.write('\t');
+            if (correction.getSuggestions() != null) {
+                writer.write(String.join(",", correction.getSuggestions()));
+            }
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Capitalizes a suggestion like the word it replaces (all caps, or the first letter).
+     */
+    static String matchCase(String original, String suggestion) {
+        if (original.length() > 1 && original.equals(original.toUpperCase())) {
+            return suggestion.toUpperCase();
+        }
+        if (Character.isUpperCase(original.charAt(0)) && !suggestion.isEmpty()) {
+            return Character.toUpperCase(suggestion.charAt(0)) + suggestion.substring(1);
+        }
+        return suggestion;
+    }
+}
@@ -0,0 +1,55 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * IdCounter
+ * <p>
+ * Reusable counters per word ID, used to count how many posting lists each candidate appears in
+ * (ScanCount). Like {@link IdMarker}, each query starts a new generation, so clearing the counters is
+ * O(1). Not thread-safe: keep one per thread.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+final class IdCounter {
+    private final int[] stamps;
+    private final int[] counts;
+    private int stamp;
+
+    IdCounter(int size) {
+        this.stamps = new int[size];
+        this.counts = new int[size];
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    void reset() {
+        // Clear the stamps for real when the generation wraps around
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Increments the counter of an ID.
+     *
+     * @return The new value of the counter.
+     */
+    int increment(int id) {
+        if (stamps[id] != stamp) {
+            stamps[id] = stamp;
+            counts[id] = 0;
+        }
+        return ++counts[id];
+    }
+
+    /**
+     * Returns the counter of an ID.
+     */
+    int count(int id) {
+        return stamps[id] == stamp ? counts[id] : 0;
+    }
+}
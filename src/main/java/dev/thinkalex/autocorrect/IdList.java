@@ -0,0 +1,51 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * IdList
+ * <p>
+ * Growable list of word IDs, so candidates don't have to be boxed.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class IdList {
+    private int[] ids;
+    private int size;
+
+    public IdList() {
+        this(16);
+    }
+
+    public IdList(int capacity) {
+        this.ids = new int[Math.max(1, capacity)];
+    }
+
+    public void add(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+    }
+
+    public int get(int index) {
+        return ids[index];
+    }
+
+    public void set(int index, int id) {
+        ids[index] = id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
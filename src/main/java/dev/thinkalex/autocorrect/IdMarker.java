@@ -0,0 +1,45 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * IdMarker
+ * <p>
+ * Reusable set of word IDs, used to deduplicate candidates without a HashSet. Each query starts a new
+ * generation, so clearing the set is O(1). Not thread-safe: keep one per thread.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+final class IdMarker {
+    private final int[] stamps;
+    private int stamp;
+
+    IdMarker(int size) {
+        this.stamps = new int[size];
+    }
+
+    /**
+     * Empties the set.
+     */
+    void reset() {
+        // Clear the stamps for real when the generation wraps around
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Adds an ID to the set.
+     *
+     * @return True if the ID wasn't in the set yet.
+     */
+    boolean mark(int id) {
+        if (stamps[id] == stamp) {
+            return false;
+        }
+        stamps[id] = stamp;
+        return true;
+    }
+}
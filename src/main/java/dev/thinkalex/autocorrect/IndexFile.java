@@ -0,0 +1,211 @@
+package dev.thinkalex.autocorrect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * IndexFile
+ * <p>
+ * Precompiled binary dictionary: the {@link WordStore} and {@link TrigramIndex} arrays, written once by a
+ * build step so that startup doesn't have to parse, sort, hash and tokenize every word. At startup the
+ * file is memory-mapped and each array is copied out of the mapping in bulk (no parsing and no per-word
+ * objects), so loading costs about as much as reading the file from the page cache.
+ * </p>
+ * <p>
+ * The header holds a format version and the length and CRC-32 of the dictionary text the file was built
+ * from. A file that is missing, from another version, or built from a different text is ignored, and the
+ * text dictionary is parsed instead.
+ * </p>
+ * <pre>
+ * int    magic ("ACIX")
+ * int    format version
+ * long   source text length
+ * int    source text CRC-32
+ * ...    word store arrays
+ * ...    trigram index arrays
+ * </pre>
+ * Every array is stored as its length followed by its elements, little-endian.
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class IndexFile {
+    static final int MAGIC = 0x58494341;
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+
+    private final WordStore dictionary;
+    private final TrigramIndex tokens;
+
+    private IndexFile(WordStore dictionary, TrigramIndex tokens) {
+        this.dictionary = dictionary;
+        this.tokens = tokens;
+    }
+
+    public WordStore getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns the trigram index, or null if it wasn't loaded from an index file.
+     */
+    public TrigramIndex getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Loads one of the bundled dictionaries, from its index file if it's up to date.
+     *
+     * @param dictionary The name of the textfile, [dictionary].txt, in the dictionaries directory.
+     * @param indexFile  The index file built from it (may be null).
+     * @return The dictionary, and its trigram index if it was in the index file.
+     */
+    public static IndexFile load(String dictionary, Path indexFile) {
+        byte[] text = readDictionaryText(dictionary);
+        if (indexFile != null && Files.isRegularFile(indexFile)) {
+            try {
+                IndexFile index = read(indexFile, text);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Unreadable or truncated: fall back to the text file
+            }
+        }
+        return new IndexFile(new WordStore(parseDictionary(text)), null);
+    }
+
+    /**
+     * Maps an index file, checking that it was built from a given dictionary text.
+     *
+     * @return The index, or null if the file has another format version or was built from another text.
+     */
+    static IndexFile read(Path indexFile, byte[] text) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            // Check the header
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != text.length || buffer.getInt() != crc(text)) {
+                return null;
+            }
+
+            WordStore dictionary = WordStore.readFrom(buffer);
+            TrigramIndex tokens = TrigramIndex.readFrom(buffer, dictionary);
+            return new IndexFile(dictionary, tokens);
+        }
+    }
+
+    /**
+     * Builds the index file for a dictionary text file.
+     *
+     * @param dictionaryText The dictionary (the word count, then one word per line).
+     * @param indexFile      Where to write the index.
+     */
+    public static void write(Path dictionaryText, Path indexFile) throws IOException {
+        write(Files.readAllBytes(dictionaryText), indexFile);
+    }
+
+    /**
+     * Builds the index file for a dictionary text.
+     */
+    static void write(byte[] text, Path indexFile) throws IOException {
+        WordStore dictionary = new WordStore(parseDictionary(text));
+        TrigramIndex tokens = new TrigramIndex(dictionary);
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(HEADER_BYTES + dictionary.serializedBytes()
+                + tokens.serializedBytes())).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(text.length).putInt(crc(text));
+        dictionary.writeTo(buffer);
+        tokens.writeTo(buffer);
+        buffer.flip();
+
+        // Write next to the target, then move it into place, so a running service never maps half a file
+        Path temporary = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads one of the bundled dictionaries.
+     *
+     * @param dictionary The name of the textfile, [dictionary].txt, in the dictionaries directory.
+     * @return The raw text.
+     */
+    static byte[] readDictionaryText(String dictionary) {
+        // Plain class loader lookup (not Spring's resources), so the launcher doesn't load Spring at all
+        try (InputStream input = IndexFile.class.getResourceAsStream("/dictionaries/" + dictionary + ".txt")) {
+            if (input == null) {
+                throw new IOException("Dictionary not found: " + dictionary);
+            }
+            return input.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses a dictionary text: the number of words on the first line, then one word per line.
+     *
+     * @return An array of Strings containing all words.
+     */
+    static String[] parseDictionary(byte[] text) {
+        String[] lines = new String(text, StandardCharsets.UTF_8).split("\r?\n", -1);
+        int n = Integer.parseInt(lines[0].trim());
+        String[] words = new String[n];
+        System.arraycopy(lines, 1, words, 0, n);
+        return words;
+    }
+
+    private static int crc(byte[] text) {
+        CRC32 crc = new CRC32();
+        crc.update(text);
+        return (int) crc.getValue();
+    }
+
+    // Array sections (length, then elements)
+    static long sectionBytes(int length, int elementSize) {
+        return 4 + (long) length * elementSize;
+    }
+
+    static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.putInt(values.length);
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 4);
+    }
+
+    static void putChars(ByteBuffer buffer, char[] values) {
+        buffer.putInt(values.length);
+        buffer.asCharBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 2);
+    }
+
+    static int[] getInts(ByteBuffer buffer) {
+        int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 4);
+        return values;
+    }
+
+    static char[] getChars(ByteBuffer buffer) {
+        char[] values = new char[buffer.getInt()];
+        buffer.asCharBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 2);
+        return values;
+    }
+}
@@ -0,0 +1,257 @@
+package dev.thinkalex.autocorrect;
+
+/**
+ * LevenshteinDistance
+ * <p>
+ * Bounded edit distance kernel. The (lowercased) typed word is compiled once into a {@link Pattern},
+ * which is then scored against every candidate without allocating anything.
+ * </p>
+ * <ul>
+ *     <li>Patterns of up to 64 characters use Myers' bit-vector algorithm (Hyyrö's formulation),
+ *     which processes a whole column of the DP matrix with a handful of word operations.</li>
+ *     <li>Longer patterns use a banded (Ukkonen) DP over two per-thread row buffers.</li>
+ * </ul>
+ * Both give up as soon as the distance is guaranteed to exceed the limit.
+ * <p>
+ * The kernels read lowercase char arrays directly (such as the {@link WordStore} arena). Other words are
+ * lowercased into a per-thread scratch buffer first.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class LevenshteinDistance {
+    // Largest pattern handled by the bit-vector kernel (one bit per pattern character)
+    static final int MAX_BIT_PARALLEL_LENGTH = Long.SIZE;
+
+    // Reusable DP rows for the banded kernel, so long words don't allocate per candidate
+    private static final ThreadLocal<int[][]> rowBuffers = ThreadLocal.withInitial(() -> new int[2][0]);
+
+    // Reusable buffer for lowercasing words which don't come from a WordStore
+    private static final ThreadLocal<char[][]> textBuffers = ThreadLocal.withInitial(() -> new char[1][64]);
+
+    private LevenshteinDistance() {
+    }
+
+    /**
+     * Compiles a word into a pattern that can be scored against many candidates.
+     *
+     * @param word The word to compile (usually the word typed by the user).
+     * @return The compiled pattern.
+     */
+    public static Pattern compile(String word) {
+        return new Pattern(WordStore.normalize(word));
+    }
+
+    /**
+     * A compiled, lowercased word.
+     */
+    public static final class Pattern {
+        private final String word;
+
+        // Match bitmasks (Peq) per character: ASCII in a table, everything else in a small list
+        private final long[] asciiMasks = new long[128];
+        private final char[] otherChars;
+        private final long[] otherMasks;
+        private final int otherCount;
+
+        private Pattern(String word) {
+            this.word = word;
+
+            char[] chars = new char[Math.min(word.length(), MAX_BIT_PARALLEL_LENGTH)];
+            long[] masks = new long[chars.length];
+            int count = 0;
+
+            if (word.length() <= MAX_BIT_PARALLEL_LENGTH) {
+                for (int i = 0; i < word.length(); i++) {
+                    char c = word.charAt(i);
+                    if (c < 128) {
+                        asciiMasks[c] |= 1L << i;
+                        continue;
+                    }
+
+                    // Find or add the character in the non-ASCII list
+                    int index = 0;
+                    while (index < count && chars[index] != c) {
+                        index++;
+                    }
+                    if (index == count) {
+                        chars[count++] = c;
+                    }
+                    masks[index] |= 1L << i;
+                }
+            }
+
+            this.otherChars = chars;
+            this.otherMasks = masks;
+            this.otherCount = count;
+        }
+
+        public String word() {
+            return word;
+        }
+
+        public int length() {
+            return word.length();
+        }
+
+        /**
+         * Returns the positions of a (lowercase) character in the pattern, as a bitmask (bit i = word[i]).
+         * Only available for patterns of up to 64 characters.
+         */
+        long mask(char c) {
+            if (c < 128) {
+                return asciiMasks[c];
+            }
+            for (int i = 0; i < otherCount; i++) {
+                if (otherChars[i] == c) {
+                    return otherMasks[i];
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Calculates the edit distance between this pattern and a word.
+         *
+         * @param text  The word to compare against (lowercased first).
+         * @param limit The largest distance of interest.
+         * @return The edit distance, or Integer.MAX_VALUE if it is greater than the limit.
+         */
+        public int distance(CharSequence text, int limit) {
+            // Lowercase into this thread's buffer
+            char[][] buffer = textBuffers.get();
+            if (buffer[0].length < text.length()) {
+                buffer[0] = new char[text.length()];
+            }
+            for (int i = 0; i < text.length(); i++) {
+                buffer[0][i] = Character.toLowerCase(text.charAt(i));
+            }
+
+            return distance(buffer[0], 0, text.length(), limit);
+        }
+
+        /**
+         * Calculates the edit distance between this pattern and the range [from, to) of a lowercase char array.
+         *
+         * @param text  The characters of the word to compare against (already lowercase).
+         * @param from  The index of the first character of the word.
+         * @param to    The index after the last character of the word.
+         * @param limit The largest distance of interest.
+         * @return The edit distance, or Integer.MAX_VALUE if it is greater than the limit.
+         */
+        public int distance(char[] text, int from, int to, int limit) {
+            int n = to - from;
+            int m = word.length();
+
+            // No way to get within the limit (also covers the length filter)
+            if (limit < 0 || Math.abs(n - m) > limit) {
+                return Integer.MAX_VALUE;
+            }
+
+            // Special case: if either word is empty
+            if (m == 0 || n == 0) {
+                return Math.max(m, n);
+            }
+
+            return m <= MAX_BIT_PARALLEL_LENGTH ? bitParallel(text, from, to, limit) : banded(text, from, to, limit);
+        }
+
+        /**
+         * Myers' bit-vector algorithm: each bit of Pv / Mv is a +1 / -1 vertical delta in the current column.
+         */
+        private int bitParallel(char[] text, int from, int to, int limit) {
+            int m = word.length();
+            long last = 1L << (m - 1);
+
+            long pv = -1L;
+            long mv = 0L;
+            int score = m;
+
+            for (int j = from; j < to; j++) {
+                long eq = mask(text[j]);
+                long xv = eq | mv;
+                long xh = (((eq & pv) + pv) ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+
+                // Track the bottom row (the distance to the full pattern)
+                if ((ph & last) != 0) {
+                    score++;
+                } else if ((mh & last) != 0) {
+                    score--;
+                }
+
+                // Early exit: the bottom row can only drop by one per remaining character
+                if (score - (to - j - 1) > limit) {
+                    return Integer.MAX_VALUE;
+                }
+
+                // Top row is 0, 1, 2... so a +1 is shifted in
+                ph = (ph << 1) | 1L;
+                mh = mh << 1;
+                pv = mh | ~(xv | ph);
+                mv = ph & xv;
+            }
+
+            return score > limit ? Integer.MAX_VALUE : score;
+        }
+
+        /**
+         * Ukkonen's banded DP: only cells within the limit of the diagonal can stay under the limit.
+         */
+        private int banded(char[] text, int from, int to, int limit) {
+            int n = to - from;
+            int m = word.length();
+            int infinity = limit + 1;
+
+            // Get (and grow if needed) this thread's row buffers
+            int[][] rows = rowBuffers.get();
+            if (rows[0].length < m + 1) {
+                rows[0] = new int[m + 1];
+                rows[1] = new int[m + 1];
+            }
+            int[] previous = rows[0];
+            int[] current = rows[1];
+
+            // Fill in the first row (clamped, anything over the limit is "infinity")
+            for (int i = 0; i <= m; i++) {
+                previous[i] = Math.min(i, infinity);
+            }
+
+            for (int j = 1; j <= n; j++) {
+                char c = text[from + j - 1];
+                int low = Math.max(1, j - limit);
+                int high = Math.min(m, j + limit);
+
+                // Cells just outside the band
+                current[low - 1] = low == 1 ? Math.min(j, infinity) : infinity;
+                if (high < m) {
+                    current[high + 1] = infinity;
+                }
+
+                int min = current[low - 1];
+                for (int i = low; i <= high; i++) {
+                    int value;
+                    if (word.charAt(i - 1) == c) {
+                        value = previous[i - 1];
+                    } else {
+                        value = Math.min(previous[i - 1], Math.min(previous[i], current[i - 1])) + 1;
+                    }
+                    current[i] = Math.min(value, infinity);
+                    min = Math.min(min, current[i]);
+                }
+
+                // Early exit if the minimum edit distance is greater than the limit
+                if (min > limit) {
+                    return Integer.MAX_VALUE;
+                }
+
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+
+            return previous[m] > limit ? Integer.MAX_VALUE : previous[m];
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package dev.thinkalex.autocorrect;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LoadHarness
+ * <p>
+ * An end-to-end load test of the web UI's /correct endpoint. Each of a fixed number of workers posts typos from its
+ * own {@link MisspellingGenerator} (seeded from the harness's seed, so runs are repeatable), one request at a time,
+ * waiting for the response before sending the next one (closed loop). Requests during the warm-up aren't recorded.
+ * </p>
+ * <p>
+ * The report (throughput, latency percentiles and errors) can be written as JSON, to compare releases.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class LoadHarness {
+    private final URI target;
+    private final String[] dictionary;
+    private final int concurrency;
+    private final Duration warmup;
+    private final Duration duration;
+    private final int editDistance;
+    private final int maxResults;
+    private final long seed;
+    private final double exponent;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    /**
+     * @param target       The URL of the /correct endpoint.
+     * @param dictionary   The words to misspell.
+     * @param concurrency  The number of requests in flight (one per worker).
+     * @param warmup       How long to send requests before recording them.
+     * @param duration     How long to record requests for.
+     * @param editDistance The edit distance of every request.
+     * @param maxResults   The maximum number of suggestions of every request.
+     * @param seed         The seed of the typos.
+     * @param exponent     The Zipf exponent of the typed words.
+     */
+    public LoadHarness(URI target, String[] dictionary, int concurrency, Duration warmup, Duration duration,
+                       int editDistance, int maxResults, long seed, double exponent) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1!");
+        }
+        this.target = target;
+        this.dictionary = dictionary;
+        this.concurrency = concurrency;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.editDistance = editDistance;
+        this.maxResults = maxResults;
+        this.seed = seed;
+        this.exponent = exponent;
+    }
+
+    /**
+     * Runs the load test.
+     */
+    public Report run() throws InterruptedException {
+        long start = System.nanoTime();
+        long recordFrom = start + warmup.toNanos();
+        long end = recordFrom + duration.toNanos();
+
+        // Start the workers
+        Worker[] workers = new Worker[concurrency];
+        Thread[] threads = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = new Worker(new MisspellingGenerator(dictionary, seed + i, exponent), recordFrom, end);
+            threads[i] = new Thread(workers[i], "load-worker-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Merge their latencies
+        int count = 0;
+        long errors = 0;
+        for (Worker worker : workers) {
+            count += worker.count;
+            errors += worker.errors;
+        }
+        long[] latencies = new long[count];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+            offset += worker.count;
+        }
+        Arrays.sort(latencies);
+        return new Report(this, latencies, errors, (end - recordFrom) / 1e9);
+    }
+
+    /**
+     * Sends requests until the end of the test, recording the ones after the warm-up.
+     */
+    private final class Worker implements Runnable {
+        private final MisspellingGenerator generator;
+        private final long recordFrom;
+        private final long end;
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        Worker(MisspellingGenerator generator, long recordFrom, long end) {
+            this.generator = generator;
+            this.recordFrom = recordFrom;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                HttpRequest request = HttpRequest.newBuilder(target)
+                        .timeout(Duration.ofSeconds(30))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString("word=" + URLEncoder.encode(generator.next(), StandardCharsets.UTF_8)
+                                + "&editDistance=" + editDistance + "&maxResults=" + maxResults))
+                        .build();
+                boolean failed;
+                try {
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    failed = response.statusCode() != 200;
+                } catch (IOException e) {
+                    failed = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                // Only record requests sent after the warm-up, and finished before the end
+                long latency = System.nanoTime() - now;
+                if (now >= recordFrom && now + latency <= end) {
+                    if (failed) {
+                        errors++;
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = latency;
+                }
+            }
+        }
+    }
+
+    /**
+     * The results of a load test (serialized as JSON by {@link #write(Path)}).
+     */
+    public static final class Report {
+        private final Map<String, Object> configuration = new LinkedHashMap<>();
+        private final long requests;
+        private final long errors;
+        private final double seconds;
+        private final long[] latencies;
+
+        private Report(LoadHarness harness, long[] latencies, long errors, double seconds) {
+            configuration.put("target", harness.target.toString());
+            configuration.put("concurrency", harness.concurrency);
+            configuration.put("warmupSeconds", harness.warmup.toMillis() / 1000.0);
+            configuration.put("durationSeconds", harness.duration.toMillis() / 1000.0);
+            configuration.put("editDistance", harness.editDistance);
+            configuration.put("maxResults", harness.maxResults);
+            configuration.put("seed", harness.seed);
+            configuration.put("zipfExponent", harness.exponent);
+            configuration.put("dictionarySize", harness.dictionary.length);
+            configuration.put("cores", Runtime.getRuntime().availableProcessors());
+            configuration.put("javaVersion", System.getProperty("java.version"));
+            configuration.put("timestamp", Instant.now().toString());
+            this.latencies = latencies;
+            this.requests = latencies.length;
+            this.errors = errors;
+            this.seconds = seconds;
+        }
+
+        public Map<String, Object> getConfiguration() {
+            return configuration;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Returns the number of requests per second (after the warm-up).
+         */
+        public double getThroughput() {
+            return requests / seconds;
+        }
+
+        /**
+         * Returns the latency percentiles (p50, p90, p99, p999 and max) and mean, in milliseconds.
+         */
+        public Map<String, Double> getLatencyMillis() {
+            Map<String, Double> percentiles = new LinkedHashMap<>();
+            percentiles.put("p50", percentile(0.5));
+            percentiles.put("p90", percentile(0.9));
+            percentiles.put("p99", percentile(0.99));
+            percentiles.put("p999", percentile(0.999));
+            percentiles.put("max", latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6);
+            percentiles.put("mean", latencies.length == 0 ? 0 : Arrays.stream(latencies).average().orElse(0) / 1e6);
+            return percentiles;
+        }
+
+        /**
+         * Returns a latency percentile in milliseconds (nearest rank).
+         */
+        public double percentile(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(fraction * latencies.length);
+            return latencies[Math.max(0, Math.min(latencies.length - 1, rank - 1))] / 1e6;
+        }
+
+        /**
+         * Writes the report as JSON.
+         */
+        public void write(Path path) throws IOException {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(path.toFile(), this);
+        }
+
+        @Override
+        public String toString() {
+            Map<String, Double> latency = getLatencyMillis();
+            return String.format("%d requests (%d errors), %.1f requests/s, p50 %.2fms, p99 %.2fms, p999 %.2fms, max %.2fms",
+                    requests, errors, getThroughput(), latency.get("p50"), latency.get("p99"), latency.get("p999"),
+                    latency.get("max"));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package dev.thinkalex.autocorrect;
+
+/**
+ * MatchCollector
+ * <p>
+ * Receives the dictionary words (by ID) an index found within the edit distance limit.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+@FunctionalInterface
+public interface MatchCollector {
+    void collect(int id, int distance);
+}
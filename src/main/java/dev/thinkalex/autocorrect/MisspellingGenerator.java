@@ -0,0 +1,150 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * MisspellingGenerator
+ * <p>
+ * Generates realistic typos, for load tests: words are drawn from a dictionary following a Zipfian distribution
+ * (a few words are typed very often, most rarely), then misspelled with the edits people make on a QWERTY keyboard:
+ * inserted, deleted and transposed characters, and substitutions by an adjacent key. The dictionaries don't have
+ * word frequencies, so the ranks are a shuffle of the words. Everything depends only on the seed, so a run can be
+ * repeated exactly.
+ * </p>
+ * <p>
+ * Most typos have one edit (80%), some two (15%), and some words are typed correctly (5%). Not thread-safe.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class MisspellingGenerator {
+    // The keys around each letter on a QWERTY keyboard
+    private static final String[] ROWS = {"qwertyuiop", "asdfghjkl", "zxcvbnm"};
+    private static final char[][] ADJACENT = new char[26][];
+
+    static {
+        for (int row = 0; row < ROWS.length; row++) {
+            for (int column = 0; column < ROWS[row].length(); column++) {
+                StringBuilder neighbours = new StringBuilder();
+                for (int otherRow = Math.max(0, row - 1); otherRow <= Math.min(ROWS.length - 1, row + 1); otherRow++) {
+                    // Rows are staggered, so the keys above and below are at the same column or one to the side
+                    int from = otherRow < row ? column : column - 1;
+                    int to = otherRow < row ? column + 1 : column;
+                    if (otherRow == row) {
+                        from = column - 1;
+                        to = column + 1;
+                    }
+                    for (int otherColumn = Math.max(0, from); otherColumn <= Math.min(ROWS[otherRow].length() - 1, to); otherColumn++) {
+                        if (otherRow != row || otherColumn != column) {
+                            neighbours.append(ROWS[otherRow].charAt(otherColumn));
+                        }
+                    }
+                }
+                ADJACENT[ROWS[row].charAt(column) - 'a'] = neighbours.toString().toCharArray();
+            }
+        }
+    }
+
+    private final String[] words;
+    private final double[] cumulative;
+    private final Random random;
+
+    /**
+     * @param dictionary The words to misspell.
+     * @param seed       The seed of every random choice.
+     * @param exponent   The Zipf exponent (1 is typical of natural language, 0 draws words uniformly).
+     */
+    public MisspellingGenerator(String[] dictionary, long seed, double exponent) {
+        if (dictionary.length == 0) {
+            throw new IllegalArgumentException("Dictionary is empty!");
+        }
+        this.random = new Random(seed);
+
+        // Rank the words at random (rank r is drawn with weight 1 / r^exponent)
+        this.words = dictionary.clone();
+        for (int i = words.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String word = words[i];
+            words[i] = words[j];
+            words[j] = word;
+        }
+        this.cumulative = new double[words.length];
+        double total = 0;
+        for (int rank = 0; rank < words.length; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+    }
+
+    /**
+     * Returns the next typed word: the next intended word, misspelled.
+     */
+    public String next() {
+        return misspell(nextWord());
+    }
+
+    /**
+     * Returns the next intended word (Zipf-distributed).
+     */
+    public String nextWord() {
+        double target = random.nextDouble() * cumulative[cumulative.length - 1];
+        int rank = Arrays.binarySearch(cumulative, target);
+        return words[Math.min(rank < 0 ? -rank - 1 : rank, words.length - 1)];
+    }
+
+    /**
+     * Applies 0, 1 or 2 random edits to a word.
+     */
+    public String misspell(String word) {
+        int roll = random.nextInt(100);
+        int edits = roll < 5 ? 0 : roll < 85 ? 1 : 2;
+        StringBuilder typo = new StringBuilder(word);
+        for (int i = 0; i < edits; i++) {
+            edit(typo);
+        }
+        return typo.toString();
+    }
+
+    private void edit(StringBuilder typo) {
+        int length = typo.length();
+        int operation = length == 0 ? 0 : random.nextInt(length < 2 ? 3 : 4);
+        if (operation == 0) {
+            // Insertion: a key next to the one before (a slip of the finger), or any letter at the start
+            int position = random.nextInt(length + 1);
+            typo.insert(position, position == 0 ? randomLetter() : adjacent(typo.charAt(position - 1)));
+        } else if (operation == 1) {
+            // Deletion
+            typo.deleteCharAt(random.nextInt(length));
+        } else if (operation == 2) {
+            // Substitution by an adjacent key
+            int position = random.nextInt(length);
+            typo.setCharAt(position, adjacent(typo.charAt(position)));
+        } else {
+            // Transposition of two neighbouring characters
+            int position = random.nextInt(length - 1);
+            char c = typo.charAt(position);
+            typo.setCharAt(position, typo.charAt(position + 1));
+            typo.setCharAt(position + 1, c);
+        }
+    }
+
+    private char adjacent(char c) {
+        if (c < 'a' || c > 'z') {
+            return randomLetter();
+        }
+        char[] neighbours = ADJACENT[c - 'a'];
+        return neighbours[random.nextInt(neighbours.length)];
+    }
+
+    private char randomLetter() {
+        return (char) ('a' + random.nextInt(26));
+    }
+
+    /**
+     * Returns the keys around a letter (for tests).
+     */
+    static char[] adjacentKeys(char c) {
+        return ADJACENT[c - 'a'].clone();
+    }
+}
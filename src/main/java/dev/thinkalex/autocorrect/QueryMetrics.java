@@ -0,0 +1,21 @@
+package dev.thinkalex.autocorrect;
+
+/**
+ * QueryMetrics
+ * <p>
+ * Receives the timings and counts of every query (see {@link Autocorrect#setQueryMetrics(QueryMetrics)}).
+ * Called on the querying thread, once the query is done, so it should be quick.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+@FunctionalInterface
+public interface QueryMetrics {
+    /**
+     * Records a query.
+     *
+     * @param trace The query's timings and counts (only valid during the call: it's reused for the thread's
+     *              next query).
+     */
+    void record(QueryTrace trace);
+}
@@ -0,0 +1,94 @@
+package dev.thinkalex.autocorrect;
+
+/**
+ * QueryOptions
+ * <p>
+ * The settings of a single query: how far suggestions can be from the typed word, how many to return,
+ * whether dictionary words are left alone, and how candidates are found. Options are immutable and passed
+ * with each call, so concurrent queries on a shared {@link Autocorrect} can't overwrite each other's
+ * settings. The with* methods return a modified copy.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class QueryOptions {
+    private final int editDistanceLimit;
+    private final int responseLimit;
+    private final boolean ignoreValidWords;
+    private final SearchStrategy strategy;
+
+    /**
+     * @param editDistanceLimit The maximum number of edits a suggestion can have.
+     * @param responseLimit     The maximum number of suggestions.
+     * @param ignoreValidWords  Whether to return no suggestions (null) for words in the dictionary.
+     * @param strategy          How to find the candidates (its index is built on first use).
+     */
+    public QueryOptions(int editDistanceLimit, int responseLimit, boolean ignoreValidWords, SearchStrategy strategy) {
+        if (editDistanceLimit < 0) {
+            throw new IllegalArgumentException("Edit distance must be at least 0!");
+        }
+        if (responseLimit < 0) {
+            throw new IllegalArgumentException("Response limit must be at least 0!");
+        }
+        if (strategy == null) {
+            throw new IllegalArgumentException("Strategy is required!");
+        }
+
+        this.editDistanceLimit = editDistanceLimit;
+        this.responseLimit = responseLimit;
+        this.ignoreValidWords = ignoreValidWords;
+        this.strategy = strategy;
+    }
+
+    public QueryOptions withEditDistanceLimit(int editDistanceLimit) {
+        return new QueryOptions(editDistanceLimit, responseLimit, ignoreValidWords, strategy);
+    }
+
+    public QueryOptions withResponseLimit(int responseLimit) {
+        return new QueryOptions(editDistanceLimit, responseLimit, ignoreValidWords, strategy);
+    }
+
+    public QueryOptions withIgnoreValidWords(boolean ignoreValidWords) {
+        return new QueryOptions(editDistanceLimit, responseLimit, ignoreValidWords, strategy);
+    }
+
+    public QueryOptions withStrategy(SearchStrategy strategy) {
+        return new QueryOptions(editDistanceLimit, responseLimit, ignoreValidWords, strategy);
+    }
+
+    public int getEditDistanceLimit() {
+        return editDistanceLimit;
+    }
+
+    public int getResponseLimit() {
+        return responseLimit;
+    }
+
+    public boolean getIgnoreValidWords() {
+        return ignoreValidWords;
+    }
+
+    public SearchStrategy getStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof QueryOptions options)) {
+            return false;
+        }
+        return editDistanceLimit == options.editDistanceLimit && responseLimit == options.responseLimit
+                && ignoreValidWords == options.ignoreValidWords && strategy == options.strategy;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((editDistanceLimit * 31 + responseLimit) * 31 + (ignoreValidWords ? 1 : 0)) * 31 + strategy.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryOptions[editDistanceLimit=" + editDistanceLimit + ", responseLimit=" + responseLimit
+                + ", ignoreValidWords=" + ignoreValidWords + ", strategy=" + strategy + "]";
+    }
+}
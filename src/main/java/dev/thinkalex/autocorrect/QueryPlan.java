@@ -0,0 +1,150 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * QueryPlan
+ * <p>
+ * How a query finds its candidates: the estimated candidate count and cost of each strategy the planner
+ * considered (see {@link QueryPlanner}), the one it picked, and, once the query has run, the actual count.
+ * Candidates are the words scored, except for the tree walks, where they're the nodes visited. Costs are in
+ * edit distance calculations. {@link #toString()} formats the plan for debugging.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class QueryPlan {
+    /**
+     * The estimates for one strategy.
+     */
+    public static final class Estimate {
+        private final SearchStrategy strategy;
+        private final long candidates;
+        private final double cost;
+
+        Estimate(SearchStrategy strategy, long candidates, double cost) {
+            this.strategy = strategy;
+            this.candidates = candidates;
+            this.cost = cost;
+        }
+
+        public SearchStrategy getStrategy() {
+            return strategy;
+        }
+
+        public long getCandidates() {
+            return candidates;
+        }
+
+        public double getCost() {
+            return cost;
+        }
+    }
+
+    private final String word;
+    private final int editDistance;
+    private final int dictionarySize;
+    private final int windowSize;
+    private final List<Estimate> estimates = new ArrayList<>();
+    private Estimate chosen;
+
+    // Filled in once the query has run (-1 until then)
+    private long actualCandidates = -1;
+    private long nanos = -1;
+
+    QueryPlan(String word, int editDistance, int dictionarySize, int windowSize) {
+        this.word = word;
+        this.editDistance = editDistance;
+        this.dictionarySize = dictionarySize;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Adds a strategy's estimates, keeping the cheapest one (the first one added wins ties).
+     */
+    void add(SearchStrategy strategy, long candidates, double cost) {
+        Estimate estimate = new Estimate(strategy, candidates, cost);
+        estimates.add(estimate);
+        if (chosen == null || cost < chosen.cost) {
+            chosen = estimate;
+        }
+    }
+
+    /**
+     * Runs a given strategy instead of the cheapest (its estimates are kept if it was considered).
+     */
+    void choose(SearchStrategy strategy) {
+        for (Estimate estimate : estimates) {
+            if (estimate.strategy == strategy) {
+                chosen = estimate;
+                return;
+            }
+        }
+        chosen = new Estimate(strategy, -1, Double.NaN);
+    }
+
+    void setActual(long candidates, long nanos) {
+        this.actualCandidates = candidates;
+        this.nanos = nanos;
+    }
+
+    public String getWord() {
+        return word;
+    }
+
+    public int getEditDistance() {
+        return editDistance;
+    }
+
+    /**
+     * @return The number of words a scan of the whole dictionary would score.
+     */
+    public int getDictionarySize() {
+        return dictionarySize;
+    }
+
+    /**
+     * @return The number of words within the length window (from the length histogram).
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public List<Estimate> getEstimates() {
+        return estimates;
+    }
+
+    public SearchStrategy getStrategy() {
+        return chosen.strategy;
+    }
+
+    public long getEstimatedCandidates() {
+        return chosen.candidates;
+    }
+
+    public long getActualCandidates() {
+        return actualCandidates;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Plan for \"%s\" (distance %d): %s%n", word, editDistance, chosen.strategy));
+        builder.append(String.format("  full scan: %d words, length window: %d words%n", dictionarySize, windowSize));
+        builder.append(String.format("  %-10s %12s %12s%n", "strategy", "candidates", "cost"));
+        for (Estimate estimate : estimates) {
+            builder.append(String.format("%s %-10s %12d %12.0f%n", estimate == chosen ? "*" : " ",
+                    estimate.strategy, estimate.candidates, estimate.cost));
+        }
+        if (actualCandidates >= 0) {
+            builder.append(String.format("  actual: %d candidates (estimated %d) in %.3f ms%n",
+                    actualCandidates, chosen.candidates, nanos / 1e6));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,206 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * QueryPlanner
+ * <p>
+ * Picks the cheapest way to find the candidates for a typed word (see {@link SearchStrategy#AUTO}). Each
+ * strategy whose index has been built (and profiled) gets an estimated candidate count and cost, and the
+ * cheapest one runs.
+ * Costs are in edit distance calculations: a candidate costs 1, and the other kinds of work are weighted by
+ * how long they took relative to one (measured on the large dictionary).
+ * </p>
+ * <p>
+ * Where the indexes can answer without searching, the estimates are exact: the length histogram gives the
+ * size of the length window, the trigram index gives the sizes of the typed word's posting lists within it,
+ * and the delete index's lookups follow from the word's length and the distance. The rest (how many of the
+ * scanned postings pass the count filter, how many words share a delete-variant, how many nodes the tree
+ * walks visit) comes from profiles: when an index is built, a sample of dictionary words of each length is
+ * searched at each distance up to the configured one, and the mean counts are kept with the index. Queries at
+ * larger distances use the configured distance's profile.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+final class QueryPlanner {
+    // Relative cost of each unit of work (an edit distance calculation is 1)
+    private static final double TRIGRAM_LOOKUP_COST = 200;
+    private static final double POSTING_COST = 0.3;
+    private static final double POSTING_SEARCH_COST = 1.7;
+    private static final double DELETE_COST = 13;
+    private static final double BK_TREE_NODE_COST = 6;
+    private static final double DAWG_NODE_COST = 1;
+    private static final double TRIE_NODE_COST = 1.7;
+
+    // Profiles have one entry per word length (the last one covers the longer words too), from this many words each
+    private static final int MAX_LENGTH = 16;
+    private static final int PROBES = 4;
+
+    private final DictionaryIndex base;
+
+    // Mean counts by word length, per (strategy, distance), for the indexes which have been built
+    private final ConcurrentHashMap<Long, double[]> profiles = new ConcurrentHashMap<>();
+
+    QueryPlanner(DictionaryIndex base) {
+        this.base = base;
+    }
+
+    /**
+     * Profiles an index which was just built, at each distance up to the configured one (see
+     * {@link DictionaryIndex}).
+     */
+    void profile(SearchStrategy strategy) {
+        for (int distance = 1; distance <= maxProfiledDistance(); distance++) {
+            if (strategy == SearchStrategy.SYMSPELL && !base.getSymSpellIndex().supports(distance)) {
+                break;
+            }
+            int d = distance;
+            profiles.computeIfAbsent(key(strategy, distance), key -> measure(strategy, d));
+        }
+    }
+
+    /**
+     * Estimates each strategy whose index is built, and picks the cheapest.
+     *
+     * @param word     The (normalized) typed word.
+     * @param distance The maximum edit distance.
+     * @return The plan (its actual candidate count isn't known yet).
+     */
+    QueryPlan plan(String word, int distance) {
+        WordStore words = base.words();
+        int length = word.length();
+        int window = words.lengthEnd(length + distance) - words.lengthStart(length - distance);
+        QueryPlan plan = new QueryPlan(word, distance, words.size(), window);
+
+        // Scoring the length window always works
+        plan.add(SearchStrategy.LINEAR, window, window);
+
+        // Trigram postings (the count filter can't rule anything out for short words at high distances)
+        double[] profile = profile(SearchStrategy.TRIGRAM, distance);
+        if (profile != null) {
+            int[] lookup = base.getTrigramIndex().getLookupSize(word, distance);
+            if (lookup != null) {
+                // Each word found in the scanned lists is then searched for in the others (usually stopping at the first miss)
+                int postings = lookup[0];
+                long candidates = Math.round(postings * profile[Math.min(length, MAX_LENGTH)]);
+                double postingCost = lookup[1] > 0 ? POSTING_COST + POSTING_SEARCH_COST : POSTING_COST;
+                plan.add(SearchStrategy.TRIGRAM, candidates, TRIGRAM_LOOKUP_COST + postingCost * postings + candidates);
+            }
+        }
+
+        // Delete-variants (only up to the distance the index was built for)
+        profile = profile(SearchStrategy.SYMSPELL, distance);
+        if (profile != null && base.getSymSpellIndex().supports(distance)) {
+            long candidates = Math.round(profile[Math.min(length, MAX_LENGTH)]);
+            plan.add(SearchStrategy.SYMSPELL, candidates, DELETE_COST * deletes(length, distance) + candidates);
+        }
+
+        // Tree walks (their candidates are the nodes they visit)
+        profile = profile(SearchStrategy.BK_TREE, distance);
+        if (profile != null) {
+            long nodes = Math.round(profile[Math.min(length, MAX_LENGTH)]);
+            plan.add(SearchStrategy.BK_TREE, nodes, BK_TREE_NODE_COST * nodes);
+        }
+        profile = profile(SearchStrategy.DAWG, distance);
+        if (profile != null && Dawg.supports(word)) {
+            long nodes = Math.round(profile[Math.min(length, MAX_LENGTH)]);
+            plan.add(SearchStrategy.DAWG, nodes, DAWG_NODE_COST * nodes);
+        }
+        profile = profile(SearchStrategy.TRIE, distance);
+        if (profile != null) {
+            long nodes = Math.round(profile[Math.min(length, MAX_LENGTH)]);
+            plan.add(SearchStrategy.TRIE, nodes, TRIE_NODE_COST * nodes);
+        }
+        return plan;
+    }
+
+    /**
+     * Counts the delete-variants of a word the delete index looks up (every set of up to distance deletions,
+     * including repeats).
+     */
+    static long deletes(int length, int distance) {
+        long total = 0;
+        long combinations = 1;
+        for (int i = 0; i <= Math.min(length, distance); i++) {
+            total += combinations;
+            combinations = combinations * (length - i) / (i + 1);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the profiled mean counts of a strategy by word length (null if its index isn't built, or is still
+     * being profiled): the fraction of scanned postings which pass the count filter for TRIGRAM, candidates for
+     * SYMSPELL, and visited nodes otherwise.
+     */
+    private double[] profile(SearchStrategy strategy, int distance) {
+        return profiles.get(key(strategy, Math.max(1, Math.min(distance, maxProfiledDistance()))));
+    }
+
+    /**
+     * Checks if a strategy has been profiled at a distance.
+     */
+    boolean isProfiled(SearchStrategy strategy, int distance) {
+        return profiles.containsKey(key(strategy, distance));
+    }
+
+    private int maxProfiledDistance() {
+        return Math.max(1, base.maxDistance());
+    }
+
+    private static long key(SearchStrategy strategy, int distance) {
+        return ((long) strategy.ordinal() << 32) | distance;
+    }
+
+    /**
+     * Searches a few dictionary words of each length (evenly spaced, so it's the same ones every time).
+     */
+    private double[] measure(SearchStrategy strategy, int distance) {
+        WordStore words = base.words();
+        double[] means = new double[MAX_LENGTH + 1];
+        IdList candidates = new IdList();
+        MatchCollector ignore = (id, d) -> {
+        };
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            int start = words.lengthStart(length);
+            int end = length == MAX_LENGTH ? words.size() : words.lengthEnd(length);
+            int probes = Math.min(PROBES, end - start);
+            int samples = 0;
+            double total = 0;
+            for (int p = 0; p < probes; p++) {
+                String word = words.word(words.idAt(start + (int) ((end - start) * (p + 0.5) / probes)));
+                if (strategy == SearchStrategy.DAWG && !Dawg.supports(word)) {
+                    continue;
+                }
+                SearchStats stats = new SearchStats();
+                switch (strategy) {
+                    case TRIGRAM -> {
+                        // Fraction of the scanned postings which become candidates
+                        candidates.clear();
+                        int[] lookup = base.getTrigramIndex().getLookupSize(word, distance);
+                        if (lookup != null && lookup[0] > 0 && base.getTrigramIndex().getPotentialWords(word, distance, candidates)) {
+                            total += Math.min(1.0, (double) candidates.size() / lookup[0]);
+                            samples++;
+                        }
+                        continue;
+                    }
+                    case SYMSPELL -> {
+                        candidates.clear();
+                        base.getSymSpellIndex().getPotentialWords(word, distance, candidates);
+                        total += candidates.size();
+                    }
+                    case BK_TREE -> base.getBKTree().search(word, distance, stats, ignore);
+                    case DAWG -> base.getDawg().search(word, distance, stats, ignore);
+                    case TRIE -> base.getTrie().search(word, distance, stats, ignore);
+                    default -> {
+                    }
+                }
+                total += stats.getVisited();
+                samples++;
+            }
+            means[length] = samples == 0 ? 0 : total / samples;
+        }
+        return means;
+    }
+}
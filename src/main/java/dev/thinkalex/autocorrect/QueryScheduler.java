@@ -0,0 +1,311 @@
+package dev.thinkalex.autocorrect;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * QueryScheduler
+ * <p>
+ * Keeps expensive queries from starving cheap ones. Queries which are answered without searching (valid or
+ * cached words) or at a small edit distance run on the calling thread; the others are scored on a bounded pool,
+ * one thread per core by default, so a burst of them can't take every request thread. When the pool's queue is
+ * full, new expensive queries are either answered at the small edit distance instead (degraded), or rejected.
+ * </p>
+ * <p>
+ * Identical queries (same word and options) which arrive while one is being searched share its search and its
+ * result (see {@link SingleFlight}), on the calling thread or the pool alike, so a spike of requests for one word
+ * costs a single search, even for words which aren't cached yet. A query which times out (or is cancelled) only
+ * stops waiting; its search is only cancelled once nobody is waiting for it.
+ * </p>
+ * <p>
+ * The results are futures, so the web UI's request threads don't wait for the pool.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+@Component
+public class QueryScheduler {
+    /**
+     * What to do with an expensive query when the pool's queue is full.
+     */
+    public enum Overload {
+        // Answer it on the calling thread, at the inline edit distance
+        DEGRADE,
+        // Fail it with a RejectedExecutionException
+        REJECT
+    }
+
+    /**
+     * The suggestions for a word, and the edit distance they were searched with.
+     */
+    public static final class Suggestions {
+        private final List<String> words;
+        private final int editDistance;
+        private final boolean degraded;
+
+        Suggestions(List<String> words, int editDistance, boolean degraded) {
+            this.words = words;
+            this.editDistance = editDistance;
+            this.degraded = degraded;
+        }
+
+        /**
+         * Returns the suggestions, or null if the word is valid and valid words are ignored.
+         */
+        public List<String> getWords() {
+            return words;
+        }
+
+        public int getEditDistance() {
+            return editDistance;
+        }
+
+        /**
+         * Returns whether the query was answered at a smaller edit distance than it asked for, as the server was busy.
+         */
+        public boolean isDegraded() {
+            return degraded;
+        }
+    }
+
+    private final Autocorrect autocorrect;
+    private final ThreadPoolExecutor pool;
+    private final int inlineDistance;
+    private final Overload overload;
+    private final long timeoutMillis;
+
+    // Searches in progress, by word and options
+    private final SingleFlight<Query, Suggestions> flights = new SingleFlight<>();
+
+    // Counters
+    private final LongAdder inline = new LongAdder();
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder degraded = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * Identifies a query (the word is normalized, so "Helo" and "helo" share a search).
+     */
+    private static final class Query {
+        private final String word;
+        private final QueryOptions options;
+
+        Query(String word, QueryOptions options) {
+            this.word = WordStore.normalize(word);
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Query query && word.equals(query.word) && options.equals(query.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return word.hashCode() * 31 + options.hashCode();
+        }
+    }
+
+    /**
+     * @param autocorrect    The service to query.
+     * @param threads        The number of scoring threads (autocorrect.scheduler.threads property, 0 for one per core).
+     * @param queueCapacity  The number of expensive queries which can wait for a scoring thread
+     *                       (autocorrect.scheduler.queue-capacity property).
+     * @param inlineDistance The largest edit distance answered on the calling thread (autocorrect.scheduler.inline-distance
+     *                       property), which is also the distance of degraded queries.
+     * @param overload       What to do when the queue is full (autocorrect.scheduler.overload property).
+     * @param timeoutMillis  How long a query can wait for its results before failing with a TimeoutException
+     *                       (autocorrect.scheduler.timeout-ms property, 0 to wait as long as it takes).
+     */
+    @Autowired
+    public QueryScheduler(Autocorrect autocorrect,
+                          @Value("${autocorrect.scheduler.threads:0}") int threads,
+                          @Value("${autocorrect.scheduler.queue-capacity:64}") int queueCapacity,
+                          @Value("${autocorrect.scheduler.inline-distance:1}") int inlineDistance,
+                          @Value("${autocorrect.scheduler.overload:DEGRADE}") Overload overload,
+                          @Value("${autocorrect.scheduler.timeout-ms:0}") long timeoutMillis) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("Threads must be at least 0!");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1!");
+        }
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout must be at least 0!");
+        }
+
+        this.autocorrect = autocorrect;
+        this.inlineDistance = inlineDistance;
+        this.overload = overload;
+        this.timeoutMillis = timeoutMillis;
+
+        int size = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "autocorrect-scoring-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public QueryScheduler(Autocorrect autocorrect, int threads, int queueCapacity, int inlineDistance, Overload overload) {
+        this(autocorrect, threads, queueCapacity, inlineDistance, overload, 0);
+    }
+
+    /**
+     * Finds the suggestions for a word (see {@link Autocorrect#getTopStrings(String, QueryOptions)}).
+     */
+    public CompletableFuture<Suggestions> suggest(String word, QueryOptions options) {
+        int distance = options.getEditDistanceLimit();
+
+        // Answered without searching
+        List<String> known = autocorrect.getKnownStrings(word, options);
+        if (known != SuggestionCache.ABSENT) {
+            inline.increment();
+            return CompletableFuture.completedFuture(new Suggestions(known, distance, false));
+        }
+
+        // Share the search of an identical query in progress, or start one
+        return withTimeout(flights.join(new Query(word, options), () -> {
+            // Cheap: at a small distance
+            if (distance <= inlineDistance) {
+                inline.increment();
+                return run(() -> new Suggestions(autocorrect.getTopStrings(word, options), distance, false));
+            }
+
+            // Expensive: on the pool, if there's room
+            return schedule(() -> new Suggestions(autocorrect.getTopStrings(word, options), distance, false),
+                    () -> new Suggestions(autocorrect.getTopStrings(word, options.withEditDistanceLimit(inlineDistance)),
+                            inlineDistance, true));
+        }));
+    }
+
+    /**
+     * Corrects a whole document (see {@link Autocorrect#correctText(CharSequence, QueryOptions)}). Degraded
+     * documents are corrected at the inline edit distance.
+     */
+    public CompletableFuture<List<Correction>> correctText(String text, QueryOptions options) {
+        if (options.getEditDistanceLimit() <= inlineDistance) {
+            inline.increment();
+            return run(() -> autocorrect.correctText(text, options));
+        }
+        return withTimeout(schedule(() -> autocorrect.correctText(text, options),
+                () -> autocorrect.correctText(text, options.withEditDistanceLimit(inlineDistance))));
+    }
+
+    /**
+     * Fails a query which is still waiting after the timeout (a query still in the queue then never runs).
+     */
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> result) {
+        if (timeoutMillis == 0 || result.isDone()) {
+            return result;
+        }
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+            if (error instanceof TimeoutException) {
+                timedOut.increment();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs a query on the calling thread.
+     */
+    private static <T> CompletableFuture<T> run(Supplier<T> query) {
+        try {
+            return CompletableFuture.completedFuture(query.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private <T> CompletableFuture<T> schedule(Supplier<T> query, Supplier<T> degradedQuery) {
+        try {
+            CompletableFuture<T> result = CompletableFuture.supplyAsync(query, pool);
+            scheduled.increment();
+            return result;
+        } catch (RejectedExecutionException e) {
+            // The queue is full
+            if (overload == Overload.REJECT) {
+                rejected.increment();
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Too many queries in progress!"));
+            }
+            degraded.increment();
+            return run(degradedQuery);
+        }
+    }
+
+    /**
+     * Stops the scoring threads (called by Spring on shutdown). Queries already queued are still answered.
+     */
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Returns the number of expensive queries waiting for a scoring thread.
+     */
+    public int getQueueSize() {
+        return pool.getQueue().size();
+    }
+
+    public long getInlineCount() {
+        return inline.sum();
+    }
+
+    public long getScheduledCount() {
+        return scheduled.sum();
+    }
+
+    public long getDegradedCount() {
+        return degraded.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the number of queries which failed with a TimeoutException.
+     */
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    /**
+     * Returns the number of queries which shared the search of an identical one in progress.
+     */
+    public long getCoalescedCount() {
+        return flights.getCoalescedCount();
+    }
+
+    /**
+     * Returns the number of searches cancelled because every query waiting for them timed out (or was cancelled).
+     */
+    public long getAbandonedCount() {
+        return flights.getAbandonedCount();
+    }
+
+    /**
+     * Returns the number of distinct searches in progress (each shared by one or more queries).
+     */
+    public int getInFlightCount() {
+        return flights.getInFlightCount();
+    }
+}
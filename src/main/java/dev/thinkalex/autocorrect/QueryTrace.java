@@ -0,0 +1,128 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * QueryTrace
+ * <p>
+ * How long each stage of a query took, and how many candidates it looked at. Only filled in when query
+ * metrics are enabled (one per thread, reused).
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class QueryTrace {
+    /**
+     * The stages of a query, in order.
+     */
+    public enum Stage {
+        // Checking whether the typed word is in the dictionary
+        VALIDATION,
+        // Finding the candidates (trigram or delete index, or the length window)
+        CANDIDATES,
+        // Calculating the edit distance of each candidate (the BK-tree, DAWG and trie find and score candidates
+        // in the same walk, which is recorded here)
+        SCORING,
+        // Sorting the top matches, and merging in the words added since the dictionary was built
+        SELECTION
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final long[] nanos = new long[STAGES.length];
+    private long lap;
+    private int length;
+    private int distance;
+    private SearchStrategy strategy;
+    private long candidates;
+    private long pruned;
+    private boolean valid;
+
+    // Counters for the tree walks, which only report through SearchStats
+    final SearchStats stats = new SearchStats();
+
+    /**
+     * Starts tracing a query.
+     */
+    QueryTrace start(String word, QueryOptions options) {
+        Arrays.fill(nanos, -1);
+        length = word.length();
+        distance = options.getEditDistanceLimit();
+        strategy = options.getStrategy();
+        candidates = -1;
+        pruned = -1;
+        valid = false;
+        lap = System.nanoTime();
+        return this;
+    }
+
+    /**
+     * Ends a stage (which started when the previous one ended).
+     */
+    void lap(Stage stage) {
+        long now = System.nanoTime();
+        nanos[stage.ordinal()] = now - lap;
+        lap = now;
+    }
+
+    void setCandidates(long candidates, long pruned) {
+        this.candidates = candidates;
+        this.pruned = pruned;
+    }
+
+    void setStrategy(SearchStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    void setValid(boolean valid) {
+        this.valid = valid;
+    }
+
+    /**
+     * Returns how long a stage took, or -1 if the query didn't go through it.
+     */
+    public long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    /**
+     * Returns the length of the (normalized) typed word.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public int getEditDistanceLimit() {
+        return distance;
+    }
+
+    /**
+     * Returns the strategy which searched (the planner's choice, for AUTO queries which searched).
+     */
+    public SearchStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Returns the number of candidates scored (or index nodes visited, for the tree walks), or -1 if the query
+     * didn't search (the word was valid).
+     */
+    public long getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Returns the number of words in the length window which the index ruled out without scoring them, or -1 if
+     * the strategy walks a tree instead (or the query didn't search).
+     */
+    public long getPruned() {
+        return pruned;
+    }
+
+    /**
+     * Returns whether the query stopped early because the word was valid.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+}
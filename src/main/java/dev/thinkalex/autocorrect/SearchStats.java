@@ -0,0 +1,49 @@
+package dev.thinkalex.autocorrect;
+
+/**
+ * SearchStats
+ * <p>
+ * Counters describing how much work a single query did, used to compare search strategies.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public class SearchStats {
+    // Candidates (or index nodes) examined
+    private long visited;
+
+    // Edit distances calculated
+    private long scored;
+
+    // Words found within the edit distance limit
+    private long matches;
+
+    public void addVisited(long count) {
+        visited += count;
+    }
+
+    public void addScored(long count) {
+        scored += count;
+    }
+
+    public void addMatches(long count) {
+        matches += count;
+    }
+
+    public long getVisited() {
+        return visited;
+    }
+
+    public long getScored() {
+        return scored;
+    }
+
+    public long getMatches() {
+        return matches;
+    }
+
+    @Override
+    public String toString() {
+        return "visited=" + visited + ", scored=" + scored + ", matches=" + matches;
+    }
+}
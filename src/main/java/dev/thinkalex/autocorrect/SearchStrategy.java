@@ -0,0 +1,48 @@
+package dev.thinkalex.autocorrect;
+
+/**
+ * SearchStrategy
+ * <p>
+ * How {@link Autocorrect} finds the dictionary words worth scoring for a typed word.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public enum SearchStrategy {
+    /**
+     * Scores every dictionary word within the length window.
+     */
+    LINEAR,
+
+    /**
+     * Scores words sharing a trigram with the typed word (falls back to LINEAR for short words).
+     */
+    TRIGRAM,
+
+    /**
+     * Scores words sharing a delete-variant with the typed word (see {@link SymSpellIndex}).
+     */
+    SYMSPELL,
+
+    /**
+     * Walks a metric tree, skipping the subtrees ruled out by the triangle inequality (see {@link BKTree}).
+     */
+    BK_TREE,
+
+    /**
+     * Intersects a Levenshtein automaton for the typed word with a minimized dictionary automaton (see {@link Dawg}).
+     */
+    DAWG,
+
+    /**
+     * Walks a trie of the dictionary with one DP row per level, pruning subtrees over the limit (see {@link DictionaryTrie}).
+     */
+    TRIE,
+
+    /**
+     * Estimates the cost of each strategy whose index is built, and runs the cheapest, per query (see
+     * {@link QueryPlanner}). Builds the trigram index and the dictionary automaton; the other indexes are
+     * considered once something else has built them.
+     */
+    AUTO
+}
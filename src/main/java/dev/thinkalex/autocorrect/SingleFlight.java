@@ -0,0 +1,183 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * SingleFlight
+ * <p>
+ * Deduplicates concurrent computations: a caller asking for a key which is already being computed attaches to
+ * that computation instead of starting its own, and gets its result (or failure). A computation is forgotten as
+ * soon as it finishes, so this isn't a cache: the next caller starts a new one.
+ * </p>
+ * <p>
+ * Each caller gets its own future, so one can be cancelled (or time out, e.g. with orTimeout) without affecting the
+ * others. Once every caller of a computation has given up, the computation is cancelled too (if it's still waiting
+ * for a thread, it never runs), and the next caller starts a new one.
+ * </p>
+ *
+ * @param <K> The keys (with equals and hashCode).
+ * @param <V> The results.
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+final class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    // Counters
+    private final LongAdder started = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    /**
+     * A computation in progress, and the number of callers still waiting for it.
+     */
+    private static final class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        volatile CompletableFuture<V> computation;
+
+        // Guarded by this (once abandoned, nobody can attach)
+        int callers = 1;
+        boolean abandoned;
+
+        synchronized boolean attach() {
+            if (abandoned) {
+                return false;
+            }
+            callers++;
+            return true;
+        }
+
+        synchronized boolean detach() {
+            abandoned = --callers == 0;
+            return abandoned;
+        }
+    }
+
+    /**
+     * Returns the result of the computation for a key, starting it if it isn't in progress already.
+     *
+     * @param key         Identifies the computation.
+     * @param computation Starts the computation (only called if none is in progress for the key; it may also run
+     *                    it right away, on the calling thread).
+     * @return This caller's future: cancelling it (or completing it) only detaches this caller.
+     */
+    CompletableFuture<V> join(K key, Supplier<CompletableFuture<V>> computation) {
+        // Attach to the computation in progress, or register a new one
+        Flight<V> flight;
+        boolean leader = false;
+        while (true) {
+            flight = flights.get(key);
+            if (flight == null) {
+                Flight<V> created = new Flight<>();
+                flight = flights.putIfAbsent(key, created);
+                if (flight == null) {
+                    flight = created;
+                    leader = true;
+                    break;
+                }
+            }
+            if (flight.attach()) {
+                break;
+            }
+
+            // Every caller gave up on it: it's being removed
+            flights.remove(key, flight);
+        }
+
+        CompletableFuture<V> caller = follow(key, flight);
+        if (leader) {
+            started.increment();
+            start(key, flight, computation);
+        } else {
+            coalesced.increment();
+        }
+        return caller;
+    }
+
+    /**
+     * Starts a new computation, forgetting it once it's done.
+     */
+    private void start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> computation) {
+        flight.result.whenComplete((value, error) -> flights.remove(key, flight));
+        try {
+            CompletableFuture<V> running = computation.get();
+            flight.computation = running;
+            running.whenComplete((value, error) -> {
+                if (error == null) {
+                    flight.result.complete(value);
+                } else {
+                    flight.result.completeExceptionally(unwrap(error));
+                }
+            });
+
+            // All callers may have given up before it was published
+            if (flight.result.isCancelled()) {
+                running.cancel(false);
+            }
+        } catch (RuntimeException e) {
+            flight.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Gives a caller its own future, completed with the computation's result.
+     */
+    private CompletableFuture<V> follow(K key, Flight<V> flight) {
+        CompletableFuture<V> caller = new CompletableFuture<>();
+        flight.result.whenComplete((value, error) -> {
+            if (error == null) {
+                caller.complete(value);
+            } else {
+                caller.completeExceptionally(unwrap(error));
+            }
+        });
+
+        // A caller which gave up (cancelled, or timed out) detaches, and the last one cancels the computation
+        caller.whenComplete((value, error) -> {
+            if (!flight.result.isDone() && flight.detach()) {
+                flights.remove(key, flight);
+                abandoned.increment();
+                flight.result.completeExceptionally(new CancellationException("Every caller gave up!"));
+                CompletableFuture<V> running = flight.computation;
+                if (running != null) {
+                    running.cancel(false);
+                }
+            }
+        });
+        return caller;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Returns the number of computations in progress.
+     */
+    int getInFlightCount() {
+        return flights.size();
+    }
+
+    long getStartedCount() {
+        return started.sum();
+    }
+
+    /**
+     * Returns the number of callers which attached to a computation already in progress.
+     */
+    long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Returns the number of computations cancelled because every caller gave up.
+     */
+    long getAbandonedCount() {
+        return abandoned.sum();
+    }
+}
@@ -0,0 +1,468 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SuggestionCache
+ * <p>
+ * Bounded cache of suggestion lists, keyed by the normalized word and the query options which change the
+ * results. Real traffic is heavily skewed (the same misspellings come up again and again), so the cache
+ * uses W-TinyLFU eviction: new entries go into a small LRU window, and an entry leaving the window only
+ * displaces an older one if a count-min sketch says it's been asked for more often. A burst of one-off
+ * words can't flush out the popular ones, and a popular word recovers its place quickly.
+ * </p>
+ * <p>
+ * The cache is split into segments by key hash, each with its own lock, window, main region (probation and
+ * protected LRUs) and sketch, so concurrent queries rarely contend. It's bounded both by entries and by
+ * (estimated) bytes. {@link #invalidateAll()} starts a new generation: results computed against the old
+ * dictionary are dropped, and ones still being computed aren't stored when they finish.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class SuggestionCache {
+    /**
+     * Returned by {@link #get} when the key isn't cached (null is a cached result: the word is valid).
+     */
+    static final List<String> ABSENT = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Segment[] segments;
+    private final int maxEntries;
+    private final long maxBytes;
+    private volatile int generation;
+
+    // Counters
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries The maximum number of cached results.
+     * @param maxBytes   The maximum (estimated) heap used by the cached results.
+     */
+    public SuggestionCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Cache bounds must be at least 1!");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+
+        // One segment per 64 entries, up to 16 (a power of two, to pick them with a mask)
+        int count = Integer.highestOneBit(Math.max(1, Math.min(16, maxEntries / 64)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            int entries = maxEntries / count + (i < maxEntries % count ? 1 : 0);
+            segments[i] = new Segment(entries, maxBytes / count);
+        }
+    }
+
+    /**
+     * Identifies a query: everything that can change its results. The strategy isn't part of it, as every
+     * strategy returns the same suggestions.
+     */
+    static final class Key {
+        final String word;
+        final int editDistanceLimit;
+        final int responseLimit;
+        final boolean ignoreValidWords;
+        private final int hash;
+
+        Key(String word, QueryOptions options) {
+            this.word = word;
+            this.editDistanceLimit = options.getEditDistanceLimit();
+            this.responseLimit = options.getResponseLimit();
+            this.ignoreValidWords = options.getIgnoreValidWords();
+            this.hash = ((word.hashCode() * 31 + editDistanceLimit) * 31 + responseLimit) * 31 + (ignoreValidWords ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && hash == key.hash && editDistanceLimit == key.editDistanceLimit
+                    && responseLimit == key.responseLimit && ignoreValidWords == key.ignoreValidWords
+                    && word.equals(key.word);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put}, read before computing the result.
+     */
+    int generation() {
+        return generation;
+    }
+
+    /**
+     * Looks up a result, counting the access towards the key's frequency.
+     *
+     * @return The cached result (null if the word is valid), or {@link #ABSENT}.
+     */
+    List<String> get(Key key) {
+        List<String> value = segment(key).get(key);
+        if (value == ABSENT) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Caches a result, unless the cache was invalidated since it was computed.
+     *
+     * @param generation The generation read before computing the result.
+     * @param value      The (unmodifiable) result, or null if the word is valid.
+     */
+    void put(Key key, List<String> value, int generation) {
+        segment(key).put(key, value, generation);
+    }
+
+    /**
+     * Drops every cached result, and every result still being computed (for when the dictionary changes).
+     */
+    public synchronized void invalidateAll() {
+        // New generation first: from now on, results computed before this call are rejected
+        generation++;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(Key key) {
+        int hash = key.hash ^ (key.hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    // Counters
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups which were cached (0 if there were none).
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the heap used by the cached results.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // Estimated heap of an entry: its node and map entry, its key, and its result
+    private static long estimateBytes(Key key, List<String> value) {
+        long bytes = 48 + 32 + 32 + stringBytes(key.word);
+        if (value != null) {
+            bytes += 16 + SymSpellIndex.arrayBytes(value.size(), 4);
+            for (String word : value) {
+                bytes += stringBytes(word);
+            }
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String word) {
+        return 24 + SymSpellIndex.arrayBytes(word.length(), 1);
+    }
+
+    // Regions of a segment
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node {
+        final Key key;
+        List<String> value;
+        long bytes;
+        int region;
+        Node previous;
+        Node next;
+
+        Node(Key key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Doubly-linked LRU list (least recently used first).
+     */
+    private static final class Queue {
+        private final Node head = new Node(null);
+        int size;
+
+        Queue() {
+            head.previous = head;
+            head.next = head;
+        }
+
+        void addLast(Node node) {
+            node.previous = head.previous;
+            node.next = head;
+            head.previous.next = node;
+            head.previous = node;
+            size++;
+        }
+
+        void remove(Node node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            size--;
+        }
+
+        Node first() {
+            return head.next == head ? null : head.next;
+        }
+
+        void clear() {
+            head.previous = head;
+            head.next = head;
+            size = 0;
+        }
+    }
+
+    private final class Segment {
+        final HashMap<Key, Node> map = new HashMap<>();
+        final Queue[] queues = {new Queue(), new Queue(), new Queue()};
+        final FrequencySketch sketch;
+        final int maxEntries;
+        final long maxBytes;
+        final int maxWindow;
+        final int maxProtected;
+        long bytes;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = Math.max(1, maxEntries);
+            this.maxBytes = maxBytes;
+
+            // 1% window, and 80% of the main region protected
+            this.maxWindow = Math.max(1, this.maxEntries / 100);
+            this.maxProtected = (int) ((this.maxEntries - maxWindow) * 0.8);
+            this.sketch = new FrequencySketch(this.maxEntries);
+        }
+
+        synchronized List<String> get(Key key) {
+            sketch.increment(key.hash);
+            Node node = map.get(key);
+            if (node == null) {
+                return ABSENT;
+            }
+            touch(node);
+            return node.value;
+        }
+
+        synchronized void put(Key key, List<String> value, int generation) {
+            if (generation != SuggestionCache.this.generation) {
+                return;
+            }
+
+            long size = estimateBytes(key, value);
+            if (size > maxBytes) {
+                return;
+            }
+
+            Node node = map.get(key);
+            if (node != null) {
+                // Replace the result (another thread computed it at the same time)
+                bytes += size - node.bytes;
+                node.value = value;
+                node.bytes = size;
+                touch(node);
+            } else {
+                node = new Node(key);
+                node.value = value;
+                node.bytes = size;
+                node.region = WINDOW;
+                map.put(key, node);
+                queues[WINDOW].addLast(node);
+                bytes += size;
+            }
+            evict();
+        }
+
+        /**
+         * Moves an accessed entry to the back of its LRU, promoting it if it was on probation.
+         */
+        private void touch(Node node) {
+            queues[node.region].remove(node);
+            if (node.region == PROBATION) {
+                node.region = PROTECTED;
+
+                // Demote the protected region's oldest entry if it's over capacity
+                if (queues[PROTECTED].size >= maxProtected) {
+                    Node demoted = queues[PROTECTED].first();
+                    if (demoted != null) {
+                        queues[PROTECTED].remove(demoted);
+                        demoted.region = PROBATION;
+                        queues[PROBATION].addLast(demoted);
+                    }
+                }
+            }
+            queues[node.region].addLast(node);
+        }
+
+        private void evict() {
+            // Entries leaving the window compete with the main region's oldest entry to stay
+            while (queues[WINDOW].size > maxWindow) {
+                Node candidate = queues[WINDOW].first();
+                queues[WINDOW].remove(candidate);
+                if (map.size() <= maxEntries) {
+                    candidate.region = PROBATION;
+                    queues[PROBATION].addLast(candidate);
+                    continue;
+                }
+
+                Node victim = queues[PROBATION].first();
+                if (victim == null) {
+                    victim = queues[PROTECTED].first();
+                }
+                if (victim != null && sketch.frequency(candidate.key.hash) > sketch.frequency(victim.key.hash)) {
+                    queues[victim.region].remove(victim);
+                    discard(victim);
+                    candidate.region = PROBATION;
+                    queues[PROBATION].addLast(candidate);
+                } else {
+                    // Not asked for more often than what it would replace: drop it
+                    discard(candidate);
+                }
+            }
+
+            // Then enforce the bounds strictly (oldest entries first, probation before protected)
+            while (map.size() > maxEntries || bytes > maxBytes) {
+                Node victim = queues[PROBATION].first();
+                if (victim == null) {
+                    victim = queues[PROTECTED].first();
+                }
+                if (victim == null) {
+                    victim = queues[WINDOW].first();
+                }
+                queues[victim.region].remove(victim);
+                discard(victim);
+            }
+        }
+
+        private void discard(Node node) {
+            map.remove(node.key);
+            bytes -= node.bytes;
+            evictions.increment();
+        }
+
+        void clear() {
+            map.clear();
+            for (Queue queue : queues) {
+                queue.clear();
+            }
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Count-min sketch of recent access frequencies: four rows of 4-bit counters (packed in longs), halved
+     * once enough accesses were counted, so that old popularity fades.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0x97CB3127L, 0xB3C1A4EBL, 0x5BD1E995L, 0x27D4EB2FL};
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxEntries) {
+            // 16 counters per long, about 16 counters per entry in total
+            int length = Integer.highestOneBit(Math.max(4, maxEntries) - 1) << 1;
+            this.table = new long[length];
+            this.mask = length - 1;
+            this.sampleSize = 10 * Math.max(1, maxEntries);
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                int index = index(hash, row);
+                int shift = offset(hash, row);
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = index(hash, row);
+                int shift = offset(hash, row);
+                if (((table[index] >>> shift) & 0xF) != 0xF) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                halve();
+            }
+        }
+
+        private void halve() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+            additions /= 2;
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        // Each row uses a different counter (of the 16) within its long
+        private int offset(int hash, int row) {
+            return (((hash >>> (row * 8)) & 3) + row * 4) << 2;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * SymSpellIndex
+ * <p>
+ * Symmetric delete index: every word is stored under each string obtained by deleting up to
+ * maxDistance of its characters. Two words within edit distance k always share a delete-variant
+ * (with at most k deletions on each side), so a lookup only has to generate the deletes of the
+ * typed word and read their posting lists, whatever the length of the word.
+ * </p>
+ * <p>
+ * Delete-variants are stored as 32-bit hashes with sorted int posting lists. A hash collision
+ * only adds a candidate, which is then rejected by the edit distance, so results stay exact. Like the
+ * {@link TrigramIndex}, postings are positions in the {@link WordStore}'s length order, so only the part
+ * of each list within the length window is read.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public class SymSpellIndex {
+    // Words, by ID
+    private final WordStore store;
+
+    // Sorted delete hashes, and the length order positions of the words producing them (postings[starts[i]..starts[i + 1]])
+    private final int[] keys;
+    private final int[] starts;
+    private final int[] postings;
+
+    // Largest distance this index can answer
+    private final int maxDistance;
+
+    // Per-thread "already a candidate" markers, to dedupe without a HashSet
+    private final ThreadLocal<IdMarker> seen;
+
+    public SymSpellIndex(WordStore store, int maxDistance) {
+        this.store = store;
+        this.maxDistance = maxDistance;
+        this.seen = ThreadLocal.withInitial(() -> new IdMarker(store.size()));
+
+        // Collect (hash, position) pairs, packed in a long so a single sort groups them
+        long[] pairs = new long[Math.max(16, store.size() * 8)];
+        int pairCount = 0;
+        char[][] buffers = new char[maxDistance + 1][];
+        for (int position = 0; position < store.size(); position++) {
+            int id = store.idAt(position);
+            int[] hashes = deleteHashes(store.chars(), store.start(id), store.length(id), maxDistance, buffers);
+            if (pairCount + hashes[0] > pairs.length) {
+                pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, pairCount + hashes[0]));
+            }
+            for (int i = 1; i <= hashes[0]; i++) {
+                pairs[pairCount++] = ((long) hashes[i] << 32) | position;
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        // Split into keys / starts / postings, dropping duplicates (e.g. "aab" -> "ab" twice)
+        int[] keys = new int[pairCount];
+        int[] starts = new int[pairCount + 1];
+        int[] postings = new int[pairCount];
+        int keyCount = 0;
+        int postingCount = 0;
+        for (int i = 0; i < pairCount; i++) {
+            if (i > 0 && pairs[i] == pairs[i - 1]) {
+                continue;
+            }
+            int hash = (int) (pairs[i] >>> 32);
+            if (keyCount == 0 || keys[keyCount - 1] != hash) {
+                keys[keyCount] = hash;
+                starts[keyCount] = postingCount;
+                keyCount++;
+            }
+            postings[postingCount++] = (int) pairs[i];
+        }
+        starts[keyCount] = postingCount;
+
+        this.keys = Arrays.copyOf(keys, keyCount);
+        this.starts = Arrays.copyOf(starts, keyCount + 1);
+        this.postings = Arrays.copyOf(postings, postingCount);
+    }
+
+    /**
+     * Checks if this index can answer queries for a given edit distance.
+     *
+     * @param distance The edit distance of the query.
+     * @return True if the index was built with at least that many deletes.
+     */
+    public boolean supports(int distance) {
+        return distance <= maxDistance;
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Finds every dictionary word sharing a delete-variant with the typed word.
+     *
+     * @param word       The (normalized) typed word.
+     * @param distance   The maximum edit distance (at most the index's max distance).
+     * @param candidates Receives the IDs of the candidate words, within the length window.
+     */
+    public void getPotentialWords(String word, int distance, IdList candidates) {
+        IdMarker marker = seen.get();
+        marker.reset();
+
+        int windowStart = store.lengthStart(word.length() - distance);
+        int windowEnd = store.lengthEnd(word.length() + distance);
+        int[] hashes = deleteHashes(word.toCharArray(), 0, word.length(), distance, new char[distance + 1][]);
+        for (int i = 1; i <= hashes[0]; i++) {
+            int key = Arrays.binarySearch(keys, hashes[i]);
+            if (key < 0) {
+                continue;
+            }
+
+            // Only read the words within edit distance based on size
+            int end = lowerBound(postings, starts[key], starts[key + 1], windowEnd);
+            for (int p = lowerBound(postings, starts[key], end, windowStart); p < end; p++) {
+                if (marker.mark(postings[p])) {
+                    candidates.add(store.idAt(postings[p]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap used by this index.
+     *
+     * @return The approximate number of bytes held by the index arrays.
+     */
+    public long estimatedBytes() {
+        return arrayBytes(keys.length, 4) + arrayBytes(starts.length, 4) + arrayBytes(postings.length, 4);
+    }
+
+    public int getKeyCount() {
+        return keys.length;
+    }
+
+    public int getPostingCount() {
+        return postings.length;
+    }
+
+    static long arrayBytes(long length, int elementSize) {
+        // 16 byte array header, padded to 8 bytes
+        return (16 + length * elementSize + 7) / 8 * 8;
+    }
+
+    /**
+     * Finds the first index in a sorted range of distinct values holding a value at least as large as a given one.
+     */
+    static int lowerBound(int[] array, int from, int to, int value) {
+        int index = Arrays.binarySearch(array, from, to, value);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * Hashes every delete-variant of a word (with up to maxDeletes deletions).
+     *
+     * @return The hashes, with their count in the first slot.
+     */
+    private static int[] deleteHashes(char[] chars, int start, int length, int maxDeletes, char[][] buffers) {
+        if (buffers[0] == null || buffers[0].length < length) {
+            buffers[0] = new char[length];
+        }
+        System.arraycopy(chars, start, buffers[0], 0, length);
+        int[] hashes = new int[16];
+        return addDeleteHashes(buffers, 0, length, 0, maxDeletes, hashes);
+    }
+
+    private static int[] addDeleteHashes(char[][] buffers, int depth, int length, int start, int maxDeletes, int[] hashes) {
+        // Add this variant
+        if (hashes[0] + 1 >= hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        hashes[++hashes[0]] = hash(buffers[depth], length);
+
+        if (depth == maxDeletes || length == 0) {
+            return hashes;
+        }
+
+        // Delete each remaining position (in increasing order, so each set of deletes is visited once)
+        if (buffers[depth + 1] == null || buffers[depth + 1].length < length) {
+            buffers[depth + 1] = new char[length];
+        }
+        char[] source = buffers[depth];
+        char[] target = buffers[depth + 1];
+        for (int i = start; i < length; i++) {
+            System.arraycopy(source, 0, target, 0, i);
+            System.arraycopy(source, i + 1, target, i, length - i - 1);
+            hashes = addDeleteHashes(buffers, depth + 1, length - 1, i, maxDeletes, hashes);
+        }
+        return hashes;
+    }
+
+    private static int hash(char[] chars, int length) {
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + chars[i];
+        }
+
+        // Murmur3 finalizer, to spread similar words across the key space
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
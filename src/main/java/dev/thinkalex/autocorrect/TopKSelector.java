@@ -0,0 +1,141 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * TopKSelector
+ * <p>
+ * Keeps the best k matches of a query, packed into longs (distance in the high half, word ID in the low
+ * half) so that comparing two longs orders by distance, then alphabetically. The matches are held in a
+ * bounded max-heap: once it's full, only a match better than the worst kept one can get in, which is
+ * also the tightest limit the remaining candidates can be scored with. Not thread-safe: keep one per
+ * thread, and reuse it across queries.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+final class TopKSelector {
+    private long[] heap = new long[16];
+    private int size;
+    private int capacity;
+
+    /**
+     * Empties the selector.
+     *
+     * @param capacity The number of matches to keep.
+     */
+    void reset(int capacity) {
+        this.size = 0;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Offers a match.
+     *
+     * @return True if the match is (for now) one of the best k.
+     */
+    boolean offer(int id, int distance) {
+        if (capacity <= 0) {
+            return false;
+        }
+
+        return offer(((long) distance << 32) | id);
+    }
+
+    /**
+     * Offers every match kept by another selector. The best k of both are the same whatever the order the
+     * matches were offered in, so merging is deterministic.
+     */
+    void merge(TopKSelector other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.heap[i]);
+        }
+    }
+
+    private boolean offer(long match) {
+        if (capacity <= 0) {
+            return false;
+        }
+
+        if (size < capacity) {
+            // Add it, growing the heap (only unbounded selectors get big)
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            siftUp(size++, match);
+            return true;
+        }
+
+        // Replace the worst kept match
+        if (match >= heap[0]) {
+            return false;
+        }
+        siftDown(0, match);
+        return true;
+    }
+
+    /**
+     * Tightens an edit distance limit once the selector is full: a match further than the worst kept one
+     * can't get in anymore.
+     *
+     * @param limit The configured edit distance limit.
+     * @return The limit to score the next candidate with.
+     */
+    int limit(int limit) {
+        if (size < capacity || size == 0) {
+            return limit;
+        }
+        return Math.min(limit, (int) (heap[0] >>> 32));
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Sorts the kept matches (best first). The selector has to be reset before offering any more.
+     */
+    void sort() {
+        Arrays.sort(heap, 0, size);
+    }
+
+    int id(int index) {
+        return (int) heap[index];
+    }
+
+    int distance(int index) {
+        return (int) (heap[index] >>> 32);
+    }
+
+    private void siftUp(int index, long match) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent] >= match) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = match;
+    }
+
+    private void siftDown(int index, long match) {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (match >= heap[child]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = match;
+    }
+}
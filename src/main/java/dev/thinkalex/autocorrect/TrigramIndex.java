@@ -0,0 +1,322 @@
+package dev.thinkalex.autocorrect;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * TrigramIndex
+ * <p>
+ * Posting lists of word IDs per trigram. Trigrams are encoded as int keys (10 bits per character, using a
+ * dense code for every character found in the dictionary) and the posting lists are sorted int arrays.
+ * Words are padded with two start and two end markers, so a word of length n has n + 2 trigrams (even
+ * the shortest words have some, and the first and last characters count as much as the middle ones).
+ * </p>
+ * <p>
+ * Candidates are filtered with the q-gram count lemma: an edit touches at most q trigrams, so a word
+ * within k edits of the typed word shares at least t = (n + 2) - k * q of its trigrams. Such a word has to
+ * appear in one of the shortest lists (all but t - 1 of them), so only those are scanned (counting the
+ * lists each word appears in), and the words found are then looked up in the longest lists with binary
+ * searches (MergeSkip). Only the words reaching the count are scored.
+ * </p>
+ * <p>
+ * Postings are positions in the {@link WordStore}'s length order rather than IDs, so each list is
+ * partitioned by word length, and only the part within the length window is ever read.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public class TrigramIndex {
+    static final int TOKEN_SIZE = 3;
+
+    // Dense character codes (0 = not in the dictionary), and the codes of the padding markers
+    private static final int CODE_BITS = 10;
+    private static final int START_CODE = (1 << CODE_BITS) - 1;
+    private static final int END_CODE = (1 << CODE_BITS) - 2;
+    private final char[] codes;
+    private final boolean packed;
+
+    // Words, by ID
+    private final WordStore store;
+
+    // Sorted keys, and their posting lists of length order positions (postings[starts[i]..starts[i + 1]])
+    private final int[] keys;
+    private final int[] starts;
+    private final int[] postings;
+
+    // Per-thread posting counters
+    private final ThreadLocal<IdCounter> counters;
+
+    public TrigramIndex(WordStore store) {
+        this.store = store;
+        this.counters = ThreadLocal.withInitial(() -> new IdCounter(store.size()));
+
+        // Assign character codes
+        this.codes = new char[Character.MAX_VALUE + 1];
+        char[] chars = store.chars();
+        int alphabetSize = 0;
+        for (char c : chars) {
+            if (codes[c] == 0) {
+                codes[c] = (char) ++alphabetSize;
+            }
+        }
+        this.packed = alphabetSize < END_CODE;
+
+        // Collect (key, position) pairs, packed in a long so a single sort groups them
+        long[] pairs = new long[64];
+        int pairCount = 0;
+        int[] grams = new int[store.getMaxLength() + TOKEN_SIZE - 1];
+        for (int position = 0; position < store.size(); position++) {
+            int id = store.idAt(position);
+            int gramCount = grams(chars, store.start(id), store.length(id), grams);
+            if (pairCount + gramCount > pairs.length) {
+                pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, pairCount + gramCount));
+            }
+            for (int i = 0; i < gramCount; i++) {
+                pairs[pairCount++] = ((long) grams[i] << 32) | position;
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        // Split into keys / starts / postings, dropping duplicates
+        int[] keys = new int[pairCount];
+        int[] starts = new int[pairCount + 1];
+        int[] postings = new int[pairCount];
+        int keyCount = 0;
+        int postingCount = 0;
+        for (int i = 0; i < pairCount; i++) {
+            if (i > 0 && pairs[i] == pairs[i - 1]) {
+                continue;
+            }
+            int key = (int) (pairs[i] >>> 32);
+            if (keyCount == 0 || keys[keyCount - 1] != key) {
+                keys[keyCount] = key;
+                starts[keyCount] = postingCount;
+                keyCount++;
+            }
+            postings[postingCount++] = (int) pairs[i];
+        }
+        starts[keyCount] = postingCount;
+
+        this.keys = Arrays.copyOf(keys, keyCount);
+        this.starts = Arrays.copyOf(starts, keyCount + 1);
+        this.postings = Arrays.copyOf(postings, postingCount);
+    }
+
+    private TrigramIndex(WordStore store, char[] codes, boolean packed, int[] keys, int[] starts, int[] postings) {
+        this.store = store;
+        this.counters = ThreadLocal.withInitial(() -> new IdCounter(store.size()));
+        this.codes = codes;
+        this.packed = packed;
+        this.keys = keys;
+        this.starts = starts;
+        this.postings = postings;
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(ByteBuffer)} (see {@link IndexFile}).
+     *
+     * @param store The words the index was built from.
+     */
+    static TrigramIndex readFrom(ByteBuffer buffer, WordStore store) {
+        boolean packed = buffer.getInt() != 0;
+        return new TrigramIndex(store, IndexFile.getChars(buffer), packed, IndexFile.getInts(buffer),
+                IndexFile.getInts(buffer), IndexFile.getInts(buffer));
+    }
+
+    /**
+     * Writes the index's arrays (see {@link IndexFile}).
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(packed ? 1 : 0);
+        IndexFile.putChars(buffer, codes);
+        IndexFile.putInts(buffer, keys);
+        IndexFile.putInts(buffer, starts);
+        IndexFile.putInts(buffer, postings);
+    }
+
+    long serializedBytes() {
+        return 4 + IndexFile.sectionBytes(codes.length, 2) + IndexFile.sectionBytes(keys.length, 4)
+                + IndexFile.sectionBytes(starts.length, 4) + IndexFile.sectionBytes(postings.length, 4);
+    }
+
+    /**
+     * Encodes the (padded) trigrams of a word.
+     *
+     * @param keys Receives the keys, at least length + 2 of them.
+     * @return The number of trigrams.
+     */
+    private int grams(char[] chars, int start, int length, int[] keys) {
+        int count = length + TOKEN_SIZE - 1;
+        for (int i = 0; i < count; i++) {
+            int first = symbol(chars, start, length, i - 2);
+            int second = symbol(chars, start, length, i - 1);
+            int third = symbol(chars, start, length, i);
+            if (packed) {
+                keys[i] = (first << (CODE_BITS * 2)) | (second << CODE_BITS) | third;
+            } else {
+                // Too many distinct characters to pack: hash instead (a collision only adds candidates)
+                int hash = (first * 31 + second) * 31 + third;
+                keys[i] = hash ^ (hash >>> 16);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the code of the character at an index of the padded word.
+     */
+    private int symbol(char[] chars, int start, int length, int index) {
+        if (index < 0) {
+            return packed ? START_CODE : 0;
+        } else if (index >= length) {
+            return packed ? END_CODE : 1;
+        }
+        return packed ? codes[chars[start + index]] : chars[start + index] + 2;
+    }
+
+    /**
+     * Finds every dictionary word sharing enough trigrams with the typed word to be within the edit distance.
+     *
+     * @param word       The (normalized) typed word.
+     * @param distance   The maximum edit distance.
+     * @param candidates Receives the IDs of the candidate words, within the length window.
+     * @return False if the typed word is too short for the count filter to rule anything out (candidates
+     * are left empty, and every word in the length window has to be scored).
+     */
+    public boolean getPotentialWords(String word, int distance, IdList candidates) {
+        Lists lists = lists(word, distance);
+        if (lists == null) {
+            return false;
+        }
+
+        // A word in fewer than threshold lists can't be a match, so it has to be in one of the
+        // (distinct - threshold + 1) shortest lists: count those with ScanCount...
+        IdCounter counter = counters.get();
+        counter.reset();
+        IdList found = new IdList();
+        int distinct = lists.order.length;
+        int shortLists = distinct - lists.threshold + 1;
+        for (int l = 0; l < shortLists; l++) {
+            int g = (int) lists.order[l];
+            for (int p = lists.starts[g]; p < lists.ends[g]; p++) {
+                if (counter.increment(postings[p]) == 1) {
+                    found.add(postings[p]);
+                }
+            }
+        }
+
+        // ...then binary search the remaining (longest) lists for those words only
+        for (int i = 0; i < found.size(); i++) {
+            int position = found.get(i);
+            int count = counter.count(position);
+            for (int l = shortLists; l < distinct && count < lists.threshold && count + distinct - l >= lists.threshold; l++) {
+                int g = (int) lists.order[l];
+                if (Arrays.binarySearch(postings, lists.starts[g], lists.ends[g], position) >= 0) {
+                    count++;
+                }
+            }
+            if (count >= lists.threshold) {
+                candidates.add(store.idAt(position));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sizes up the work {@link #getPotentialWords} would do for a typed word, from the sizes of its posting
+     * lists within the length window, without reading them.
+     *
+     * @param word     The (normalized) typed word.
+     * @param distance The maximum edit distance.
+     * @return The number of postings scanned (in the shortest lists), and the number of lists binary searched
+     * for the words found, or null if the typed word is too short for the count filter.
+     */
+    public int[] getLookupSize(String word, int distance) {
+        Lists lists = lists(word, distance);
+        if (lists == null) {
+            return null;
+        }
+        int shortLists = lists.order.length - lists.threshold + 1;
+        int scanned = 0;
+        for (int l = 0; l < shortLists; l++) {
+            scanned += (int) (lists.order[l] >>> 32);
+        }
+        return new int[]{scanned, lists.order.length - shortLists};
+    }
+
+    /**
+     * The posting lists of a typed word's distinct trigrams, within the length window.
+     */
+    private static final class Lists {
+        // Shared trigrams needed
+        int threshold;
+
+        // The part of each list within the window (postings[starts[g]..ends[g]])
+        int[] starts;
+        int[] ends;
+
+        // (size << 32 | g) for each list, shortest first
+        long[] order;
+    }
+
+    /**
+     * Looks up the posting lists of a typed word.
+     *
+     * @return The lists, or null if the typed word is too short for the count filter to rule anything out.
+     */
+    private Lists lists(String word, int distance) {
+        // Only distinct trigrams are counted, so each repeated one lowers the threshold
+        int[] grams = new int[word.length() + TOKEN_SIZE - 1];
+        int gramCount = grams(word.toCharArray(), 0, word.length(), grams);
+        Arrays.sort(grams);
+        int distinct = 0;
+        for (int i = 0; i < gramCount; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        int threshold = gramCount - distance * TOKEN_SIZE - (gramCount - distinct);
+        if (threshold <= 0) {
+            return null;
+        }
+
+        // Look up the part of each posting list within the length window (missing trigrams are empty lists)
+        Lists lists = new Lists();
+        lists.threshold = threshold;
+        lists.starts = new int[distinct];
+        lists.ends = new int[distinct];
+        lists.order = new long[distinct];
+        int windowStart = store.lengthStart(word.length() - distance);
+        int windowEnd = store.lengthEnd(word.length() + distance);
+        for (int g = 0; g < distinct; g++) {
+            int index = Arrays.binarySearch(keys, grams[g]);
+            if (index >= 0) {
+                lists.starts[g] = SymSpellIndex.lowerBound(postings, starts[index], starts[index + 1], windowStart);
+                lists.ends[g] = SymSpellIndex.lowerBound(postings, lists.starts[g], starts[index + 1], windowEnd);
+            }
+
+            // Shortest first
+            lists.order[g] = ((long) (lists.ends[g] - lists.starts[g]) << 32) | g;
+        }
+        Arrays.sort(lists.order);
+        return lists;
+    }
+
+    public int getKeyCount() {
+        return keys.length;
+    }
+
+    public int getPostingCount() {
+        return postings.length;
+    }
+
+    /**
+     * Estimates the heap used by the index.
+     *
+     * @return The approximate number of bytes held by its arrays.
+     */
+    public long estimatedBytes() {
+        return SymSpellIndex.arrayBytes(codes.length, 2) + SymSpellIndex.arrayBytes(keys.length, 4)
+                + SymSpellIndex.arrayBytes(starts.length, 4) + SymSpellIndex.arrayBytes(postings.length, 4);
+    }
+}
@@ -0,0 +1,180 @@
+package dev.thinkalex.autocorrect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TypingSession
+ * <p>
+ * Suggestions for a word which is being typed, one keystroke at a time. Instead of searching from scratch
+ * on every keystroke, the session keeps, for each prefix of the input, the active nodes of the
+ * {@link DictionaryTrie}: every node whose path is within the edit distance limit of that prefix, with its
+ * distance. Typing a character extends the deepest prefix's active nodes by that character, and deleting
+ * one just drops the deepest prefix, so a keystroke only costs the work for the characters that changed.
+ * The words ending at the last prefix's active nodes are exactly the suggestions.
+ * </p>
+ * <p>
+ * The results are the same as {@link Autocorrect#getTopStrings(String, QueryOptions)} (whatever the
+ * strategy). Not thread-safe: keep one per input field.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public final class TypingSession {
+    private final Autocorrect autocorrect;
+
+    // Active nodes and their distances, for each prefix of the input (levels[0] is the empty prefix)
+    private final List<IdList> nodes = new ArrayList<>();
+    private final List<IdList> distances = new ArrayList<>();
+    private int levels;
+    private String input = "";
+    private DictionaryTrie trie;
+    private int limit = -1;
+
+    // Deduplication of the active nodes of a prefix (position of each node in its level)
+    private int[] stamps = new int[0];
+    private int[] positions = new int[0];
+    private int stamp;
+
+    private final TopKSelector top = new TopKSelector();
+
+    TypingSession(Autocorrect autocorrect) {
+        this.autocorrect = autocorrect;
+    }
+
+    /**
+     * Updates the input, and returns its suggestions.
+     *
+     * @param text    The whole input (any part of it may have changed since the last update).
+     * @param options The settings of this query.
+     * @return The suggestions, or null if the word is valid and valid words are ignored.
+     */
+    public List<String> update(String text, QueryOptions options) {
+        String word = WordStore.normalize(text);
+        Autocorrect.Snapshot snapshot = autocorrect.snapshot();
+
+        // Start over if the trie or the limit changed (the active nodes depend on both; the trie changes when
+        // the dictionary is compacted)
+        DictionaryTrie current = snapshot.base.getTrie();
+        if (current != trie || options.getEditDistanceLimit() != limit) {
+            reset(current, options.getEditDistanceLimit());
+        }
+
+        // Roll back to the longest prefix the input still starts with, then extend it
+        int common = 0;
+        int max = Math.min(word.length(), levels - 1);
+        while (common < max && word.charAt(common) == input.charAt(common)) {
+            common++;
+        }
+        levels = common + 1;
+        for (int i = common; i < word.length(); i++) {
+            extend(word.charAt(i));
+        }
+        input = word;
+
+        // Exit early if the word exists
+        if (options.getIgnoreValidWords() && snapshot.contains(word)) {
+            return null;
+        }
+
+        // Collect the words ending at the active nodes (then drop removed words and merge in added ones)
+        IdList active = nodes.get(levels - 1);
+        IdList activeDistances = distances.get(levels - 1);
+        top.reset(snapshot.baseLimit(options.getResponseLimit()));
+        for (int i = 0; i < active.size(); i++) {
+            int id = trie.wordId(active.get(i));
+            if (id >= 0) {
+                top.offer(id, activeDistances.get(i));
+            }
+        }
+        top.sort();
+        List<Autocorrect.Result> results = snapshot.results(top, word, options);
+        List<String> suggestions = new ArrayList<>(results.size());
+        for (Autocorrect.Result result : results) {
+            suggestions.add(result.word);
+        }
+        return suggestions;
+    }
+
+    /**
+     * Returns the number of active nodes of the whole input (how much work the next keystroke costs).
+     */
+    public int getActiveNodeCount() {
+        return levels == 0 ? 0 : nodes.get(levels - 1).size();
+    }
+
+    private void reset(DictionaryTrie trie, int limit) {
+        this.trie = trie;
+        this.limit = limit;
+        if (stamps.length != trie.getNodeCount()) {
+            stamps = new int[trie.getNodeCount()];
+            positions = new int[trie.getNodeCount()];
+            stamp = 0;
+        }
+
+        // The empty prefix
+        levels = 0;
+        input = "";
+        IdList active = level(0);
+        IdList activeDistances = distances.get(0);
+        trie.initialActiveNodes(limit, (node, distance) -> {
+            active.add(node);
+            activeDistances.add(distance);
+        });
+        levels = 1;
+    }
+
+    /**
+     * Adds a level: the active nodes of the deepest prefix, extended by a character.
+     */
+    private void extend(char c) {
+        IdList previous = nodes.get(levels - 1);
+        IdList previousDistances = distances.get(levels - 1);
+        IdList next = level(levels);
+        IdList nextDistances = distances.get(levels);
+
+        // Keep each node once, with its smallest distance
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        MatchCollector collector = (node, distance) -> {
+            if (stamps[node] != stamp) {
+                stamps[node] = stamp;
+                positions[node] = next.size();
+                next.add(node);
+                nextDistances.add(distance);
+            } else if (distance < nextDistances.get(positions[node])) {
+                nextDistances.set(positions[node], distance);
+            }
+        };
+        for (int i = 0; i < previous.size(); i++) {
+            trie.nextActiveNodes(previous.get(i), previousDistances.get(i), c, limit, collector);
+        }
+
+        // Then the nodes reached by deleting characters after them, closest first (as a node's distance is final
+        // once every closer node was expanded)
+        for (int distance = 0; distance < limit; distance++) {
+            for (int i = 0; i < next.size(); i++) {
+                if (nextDistances.get(i) == distance) {
+                    trie.deletedActiveNodes(next.get(i), distance, limit, collector);
+                }
+            }
+        }
+        levels++;
+    }
+
+    /**
+     * Returns the (cleared) node list of a level, reusing the lists of dropped levels.
+     */
+    private IdList level(int level) {
+        if (level == nodes.size()) {
+            nodes.add(new IdList());
+            distances.add(new IdList());
+        }
+        nodes.get(level).clear();
+        distances.get(level).clear();
+        return nodes.get(level);
+    }
+}
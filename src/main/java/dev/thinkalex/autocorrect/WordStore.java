@@ -0,0 +1,276 @@
+package dev.thinkalex.autocorrect;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * WordStore
+ * <p>
+ * Compact dictionary storage: every word is lowercased once, deduplicated and sorted, then packed into a
+ * single char array. Words are referred to by ID, their position in alphabetical order, so comparing
+ * IDs is the same as comparing the words.
+ * </p>
+ * <p>
+ * The IDs are also partitioned by word length: listed by length (then ID), the words of each length
+ * are a contiguous range of positions, so a length window can be read without filtering anything.
+ * </p>
+ *
+ * @author Alexandre Haddad-Delaveau
+ */
+public class WordStore implements Iterable<String> {
+    // Characters of word i are chars[offsets[i]..offsets[i + 1]]
+    private final char[] chars;
+    private final int[] offsets;
+
+    // IDs ordered by length (then ID), with the words of length l at lengthOrder[lengthStarts[l]..lengthStarts[l + 1]]
+    private final int[] lengthOrder;
+    private final int[] lengthStarts;
+
+    // Open addressing hash table of word IDs (+1, so 0 is empty), for lookups
+    private final int[] table;
+
+    private final int maxLength;
+
+    public WordStore(String[] words) {
+        // Normalize (once), sort and deduplicate
+        String[] normalized = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            normalized[i] = normalize(words[i]);
+        }
+        Arrays.sort(normalized);
+        int count = 0;
+        int totalLength = 0;
+        for (int i = 0; i < normalized.length; i++) {
+            if (i == 0 || !normalized[i].equals(normalized[i - 1])) {
+                normalized[count++] = normalized[i];
+                totalLength += normalized[i].length();
+            }
+        }
+
+        // Pack the words
+        this.chars = new char[totalLength];
+        this.offsets = new int[count + 1];
+        int maxLength = 0;
+        for (int id = 0; id < count; id++) {
+            normalized[id].getChars(0, normalized[id].length(), chars, offsets[id]);
+            offsets[id + 1] = offsets[id] + normalized[id].length();
+            maxLength = Math.max(maxLength, normalized[id].length());
+        }
+        this.maxLength = maxLength;
+
+        // Partition by length (counting sort, which keeps each length in ID order)
+        this.lengthStarts = new int[maxLength + 2];
+        for (int id = 0; id < count; id++) {
+            lengthStarts[length(id) + 1]++;
+        }
+        for (int length = 0; length <= maxLength; length++) {
+            lengthStarts[length + 1] += lengthStarts[length];
+        }
+        this.lengthOrder = new int[count];
+        int[] next = Arrays.copyOf(lengthStarts, maxLength + 1);
+        for (int id = 0; id < count; id++) {
+            lengthOrder[next[length(id)]++] = id;
+        }
+
+        // Build the lookup table (at most 50% full)
+        this.table = new int[Integer.highestOneBit(Math.max(1, count) * 4 - 1)];
+        for (int id = 0; id < count; id++) {
+            int slot = hash(chars, offsets[id], offsets[id + 1]) & (table.length - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private WordStore(char[] chars, int[] offsets, int[] lengthOrder, int[] lengthStarts, int[] table) {
+        this.chars = chars;
+        this.offsets = offsets;
+        this.lengthOrder = lengthOrder;
+        this.lengthStarts = lengthStarts;
+        this.table = table;
+        this.maxLength = lengthStarts.length - 2;
+    }
+
+    /**
+     * Reads a store written by {@link #writeTo(ByteBuffer)} (see {@link IndexFile}).
+     */
+    static WordStore readFrom(ByteBuffer buffer) {
+        return new WordStore(IndexFile.getChars(buffer), IndexFile.getInts(buffer), IndexFile.getInts(buffer),
+                IndexFile.getInts(buffer), IndexFile.getInts(buffer));
+    }
+
+    /**
+     * Writes the store's arrays (see {@link IndexFile}).
+     */
+    void writeTo(ByteBuffer buffer) {
+        IndexFile.putChars(buffer, chars);
+        IndexFile.putInts(buffer, offsets);
+        IndexFile.putInts(buffer, lengthOrder);
+        IndexFile.putInts(buffer, lengthStarts);
+        IndexFile.putInts(buffer, table);
+    }
+
+    long serializedBytes() {
+        return IndexFile.sectionBytes(chars.length, 2) + IndexFile.sectionBytes(offsets.length, 4)
+                + IndexFile.sectionBytes(lengthOrder.length, 4) + IndexFile.sectionBytes(lengthStarts.length, 4)
+                + IndexFile.sectionBytes(table.length, 4);
+    }
+
+    /**
+     * Normalizes a word the same way dictionary words are (lowercase).
+     *
+     * @param word The word to normalize.
+     * @return The normalized word.
+     */
+    public static String normalize(String word) {
+        return word.toLowerCase(Locale.ROOT);
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public int length(int id) {
+        return offsets[id + 1] - offsets[id];
+    }
+
+    /**
+     * Returns the first position (in length order) of the words at least this long.
+     */
+    public int lengthStart(int length) {
+        return lengthStarts[Math.max(0, Math.min(length, maxLength + 1))];
+    }
+
+    /**
+     * Returns the position (in length order) after the last word at most this long.
+     */
+    public int lengthEnd(int length) {
+        return lengthStart(length + 1);
+    }
+
+    /**
+     * Returns the ID of the word at a position in length order.
+     */
+    public int idAt(int position) {
+        return lengthOrder[position];
+    }
+
+    /**
+     * Returns the index of the first character of a word in {@link #chars()}.
+     */
+    public int start(int id) {
+        return offsets[id];
+    }
+
+    /**
+     * Returns the index after the last character of a word in {@link #chars()}.
+     */
+    public int end(int id) {
+        return offsets[id + 1];
+    }
+
+    /**
+     * Returns the packed characters of every word (shared, do not modify).
+     */
+    char[] chars() {
+        return chars;
+    }
+
+    public String word(int id) {
+        return new String(chars, offsets[id], length(id));
+    }
+
+    /**
+     * Finds the ID of a (normalized) word.
+     *
+     * @param word The word to look for.
+     * @return Its ID, or -1 if it isn't in the dictionary.
+     */
+    public int indexOf(String word) {
+        int slot = hash(word) & (table.length - 1);
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (equals(id, word)) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    public boolean contains(String word) {
+        return indexOf(word) >= 0;
+    }
+
+    private boolean equals(int id, String word) {
+        if (length(id) != word.length()) {
+            return false;
+        }
+        int start = offsets[id];
+        for (int i = 0; i < word.length(); i++) {
+            if (chars[start + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(char[] chars, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = hash * 31 + chars[i];
+        }
+        return mix(hash);
+    }
+
+    private static int hash(String word) {
+        // Same as String.hashCode(), mixed the same way as above
+        return mix(word.hashCode());
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    /**
+     * Estimates the heap used by the store.
+     *
+     * @return The approximate number of bytes held by its arrays.
+     */
+    public long estimatedBytes() {
+        return SymSpellIndex.arrayBytes(chars.length, 2) + SymSpellIndex.arrayBytes(offsets.length, 4)
+                + SymSpellIndex.arrayBytes(lengthOrder.length, 4) + SymSpellIndex.arrayBytes(lengthStarts.length, 4)
+                + SymSpellIndex.arrayBytes(table.length, 4);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private int id = 0;
+
+            @Override
+            public boolean hasNext() {
+                return id < size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return word(id++);
+            }
+        };
+    }
+}
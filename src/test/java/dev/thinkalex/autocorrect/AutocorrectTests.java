@@ -1,10 +1,41 @@
 package dev.thinkalex.autocorrect;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
@@ -46,6 +77,963 @@ public class AutocorrectTests {
                 matches, studentSolution.runTest(typed), "Incorrect words returned for testLarger.");
     }
 
+    @Test
+    public void testEditDistanceKernels() {
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            // Mix short words (bit-parallel kernel) and long words (banded kernel)
+            int maxLength = i % 10 == 0 ? 100 : 12;
+            String word1 = randomWord(random, 1 + random.nextInt(maxLength));
+            String word2 = randomWord(random, 1 + random.nextInt(maxLength));
+            int limit = random.nextInt(5);
+
+            int expected = fullEditDistance(word1, word2);
+            if (expected > limit) {
+                expected = Integer.MAX_VALUE;
+            }
+            assertEquals(expected, LevenshteinDistance.compile(word1).distance(word2, limit),
+                    "Incorrect edit distance between " + word1 + " and " + word2 + " (limit " + limit + ").");
+        }
+    }
+
+    @Test
+    public void testTrigramCandidatesAreExact() {
+        // The count filter must never drop a match: compare against scoring every word
+        setTestData(2);
+        Random random = new Random(0);
+        for (int limit = 1; limit <= 3; limit++) {
+            Autocorrect linear = new Autocorrect(dictionary, limit, Integer.MAX_VALUE, false, SearchStrategy.LINEAR);
+            Autocorrect trigram = new Autocorrect(dictionary, limit, Integer.MAX_VALUE, false, SearchStrategy.TRIGRAM);
+            for (int i = 0; i < 500; i++) {
+                String word = mutate(random, dictionary[random.nextInt(dictionary.length)], random.nextInt(limit + 2));
+                assertArrayEquals(linear.runTest(word), trigram.runTest(word),
+                        "Incorrect words returned for " + word + " (limit " + limit + ").");
+            }
+        }
+    }
+
+    @Test
+    public void testSymSpellMatchesLinear() {
+        assertMatchesLinear(SearchStrategy.SYMSPELL);
+    }
+
+    @Test
+    public void testBKTreeMatchesLinear() {
+        assertMatchesLinear(SearchStrategy.BK_TREE);
+    }
+
+    @Test
+    public void testDawgMatchesLinear() {
+        assertMatchesLinear(SearchStrategy.DAWG);
+    }
+
+    @Test
+    public void testTrieMatchesLinear() {
+        assertMatchesLinear(SearchStrategy.TRIE);
+    }
+
+    /**
+     * Checks that a strategy suggests exactly what scoring every word does, at edit distances 0-3, for typos of
+     * dictionary words and for empty, one-letter and repeated-letter words (which are in the dictionary too).
+     */
+    private void assertMatchesLinear(SearchStrategy strategy) {
+        setTestData(2);
+        String[] edgeCases = {"", "a", "e", "aa", "aaa", "ee", "eee", "zz", "ll", "mississippi", "bookkeeper"};
+        String[] words = Arrays.copyOf(dictionary, dictionary.length + edgeCases.length);
+        System.arraycopy(edgeCases, 0, words, dictionary.length, edgeCases.length);
+        Random random = new Random(0);
+        for (int limit = 0; limit <= 3; limit++) {
+            for (int responseLimit : new int[]{3, Integer.MAX_VALUE}) {
+                Autocorrect linear = new Autocorrect(words, limit, responseLimit, false, SearchStrategy.LINEAR);
+                Autocorrect other = new Autocorrect(words, limit, responseLimit, false, strategy);
+                List<String> typed = new ArrayList<>(Arrays.asList(edgeCases));
+                typed.addAll(List.of("b", "aaaa", "eeee", "bokkeeper", "misisippi"));
+                for (int i = 0; i < 300; i++) {
+                    typed.add(mutate(random, words[random.nextInt(words.length)], random.nextInt(limit + 2)));
+                }
+                for (String word : typed) {
+                    assertEquals(linear.getTopStrings(word), other.getTopStrings(word),
+                            "Incorrect words returned for \"" + word + "\" (" + strategy + ", limit " + limit + ").");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWordStore() {
+        // Words are lowercased, deduplicated and sorted, and IDs are their positions in that order
+        setTestData(2);
+        String[] words = Arrays.copyOf(dictionary, dictionary.length + 3);
+        words[dictionary.length] = dictionary[0].toUpperCase();
+        words[dictionary.length + 1] = dictionary[1];
+        words[dictionary.length + 2] = "";
+        TreeSet<String> expected = new TreeSet<>();
+        for (String word : words) {
+            expected.add(word.toLowerCase());
+        }
+        WordStore store = new WordStore(words);
+        assertEquals(expected.size(), store.size());
+        assertEquals(new ArrayList<>(expected), toList(store));
+        int id = 0;
+        for (String word : expected) {
+            assertEquals(word, store.word(id));
+            assertEquals(word.length(), store.length(id));
+            assertEquals(word, new String(store.chars(), store.start(id), store.end(id) - store.start(id)));
+            assertEquals(id, store.indexOf(word));
+            assertEquals(-1, store.indexOf(word + "#"));
+            id++;
+        }
+        assertEquals(expected.stream().mapToInt(String::length).max().orElse(0), store.getMaxLength());
+
+        // Written and read back (as in the index file), it's the same store
+        ByteBuffer buffer = ByteBuffer.allocate((int) store.serializedBytes());
+        store.writeTo(buffer);
+        buffer.flip();
+        WordStore read = WordStore.readFrom(buffer);
+        assertEquals(toList(store), toList(read));
+        for (String word : expected) {
+            assertEquals(store.indexOf(word), read.indexOf(word));
+        }
+
+        // Candidates are deduplicated with a marker, which is emptied by starting a new generation
+        IdMarker marker = new IdMarker(store.size());
+        marker.reset();
+        assertTrue(marker.mark(3));
+        assertFalse(marker.mark(3));
+        marker.reset();
+        assertTrue(marker.mark(3));
+    }
+
+    @Test
+    public void testLengthPartition() {
+        // Listed by length, each length's words are a contiguous range of positions, in ID order
+        setTestData(2);
+        WordStore store = new WordStore(dictionary);
+        int position = 0;
+        for (int length = 0; length <= store.getMaxLength(); length++) {
+            assertEquals(position, store.lengthStart(length));
+            int previous = -1;
+            for (int id = 0; id < store.size(); id++) {
+                if (store.length(id) == length) {
+                    assertEquals(id, store.idAt(position++));
+                    assertTrue(id > previous);
+                    previous = id;
+                }
+            }
+            assertEquals(position, store.lengthEnd(length));
+        }
+        assertEquals(store.size(), position);
+
+        // Windows past either end are clamped
+        assertEquals(0, store.lengthStart(-3));
+        assertEquals(0, store.lengthEnd(-1));
+        assertEquals(store.size(), store.lengthStart(store.getMaxLength() + 5));
+        assertEquals(store.size(), store.lengthEnd(store.getMaxLength() + 5));
+
+        // The indexes' postings are partitioned too: their candidates are all within the length window
+        Random random = new Random(0);
+        TrigramIndex trigrams = new TrigramIndex(store);
+        SymSpellIndex deletes = new SymSpellIndex(store, 2);
+        for (int i = 0; i < 200; i++) {
+            String word = mutate(random, dictionary[random.nextInt(dictionary.length)], random.nextInt(3));
+            IdList trigramCandidates = new IdList();
+            if (!trigrams.getPotentialWords(word, 2, trigramCandidates)) {
+                trigramCandidates.clear();
+            }
+            IdList deleteCandidates = new IdList();
+            deletes.getPotentialWords(word, 2, deleteCandidates);
+            for (IdList candidates : List.of(trigramCandidates, deleteCandidates)) {
+                for (int c = 0; c < candidates.size(); c++) {
+                    assertTrue(Math.abs(store.length(candidates.get(c)) - word.length()) <= 2,
+                            "Candidate outside the window of " + word + ".");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTopKSelector() {
+        // The kept matches must be the first k of a full sort by distance, then ID (ties go to the first word)
+        Random random = new Random(0);
+        TopKSelector top = new TopKSelector();
+        TopKSelector left = new TopKSelector();
+        TopKSelector right = new TopKSelector();
+        for (int i = 0; i < 500; i++) {
+            int count = random.nextInt(60);
+            int capacity = random.nextInt(20);
+            List<long[]> matches = new ArrayList<>();
+            for (int id = 0; id < count; id++) {
+                if (random.nextBoolean()) {
+                    matches.add(new long[]{random.nextInt(4), id});
+                }
+            }
+            Collections.shuffle(matches, random);
+
+            // Offered at once, or split between two selectors and merged (as parallel scoring does)
+            top.reset(capacity);
+            left.reset(capacity);
+            right.reset(capacity);
+            for (int m = 0; m < matches.size(); m++) {
+                top.offer((int) matches.get(m)[1], (int) matches.get(m)[0]);
+                (m % 2 == 0 ? left : right).offer((int) matches.get(m)[1], (int) matches.get(m)[0]);
+            }
+            left.merge(right);
+
+            // Once it's full, the limit is the worst kept distance
+            matches.sort(Comparator.<long[]>comparingLong(match -> match[0]).thenComparingLong(match -> match[1]));
+            int kept = Math.min(capacity, matches.size());
+            int expectedLimit = kept == capacity && kept > 0 ? (int) Math.min(3, matches.get(kept - 1)[0]) : 3;
+            assertEquals(expectedLimit, top.limit(3));
+
+            for (TopKSelector selector : new TopKSelector[]{top, left}) {
+                selector.sort();
+                assertEquals(kept, selector.size());
+                for (int k = 0; k < kept; k++) {
+                    assertEquals(matches.get(k)[0], selector.distance(k));
+                    assertEquals(matches.get(k)[1], selector.id(k));
+                }
+            }
+        }
+    }
+
+    private static List<SearchStrategy> estimated(QueryPlan plan) {
+        return plan.getEstimates().stream().map(QueryPlan.Estimate::getStrategy).toList();
+    }
+
+    private static List<String> toList(Iterable<String> words) {
+        List<String> list = new ArrayList<>();
+        words.forEach(list::add);
+        return list;
+    }
+
+    @Test
+    public void testIndexFile() throws IOException {
+        setTestData(2);
+        byte[] text = (dictionary.length + "\n" + String.join("\n", dictionary) + "\n").getBytes(StandardCharsets.UTF_8);
+        Path indexFile = Files.createTempFile("autocorrect", ".idx");
+        try {
+            IndexFile.write(text, indexFile);
+
+            // The mapped index must answer exactly like one built from the text
+            IndexFile index = IndexFile.read(indexFile, text);
+            assertNotNull(index, "Index file rejected.");
+            Autocorrect mapped = new Autocorrect(index, threshold, Integer.MAX_VALUE, false, SearchStrategy.TRIGRAM);
+            Autocorrect parsed = new Autocorrect(dictionary, threshold, Integer.MAX_VALUE, false, SearchStrategy.TRIGRAM);
+            Random random = new Random(0);
+            for (int i = 0; i < 200; i++) {
+                String word = mutate(random, dictionary[random.nextInt(dictionary.length)], random.nextInt(threshold + 2));
+                assertArrayEquals(parsed.runTest(word), mapped.runTest(word), "Incorrect words returned for " + word + ".");
+            }
+
+            // A different dictionary makes the index stale
+            byte[] changed = text.clone();
+            changed[changed.length - 2]++;
+            assertNull(IndexFile.read(indexFile, changed), "Stale index file accepted.");
+        } finally {
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    @Test
+    public void testParallelScoring() {
+        // Splitting the candidates across workers must not change the results (or their order)
+        setTestData(2);
+        Random random = new Random(0);
+        for (int responseLimit : new int[]{3, Integer.MAX_VALUE}) {
+            Autocorrect sequential = new Autocorrect(dictionary, 3, responseLimit, false, SearchStrategy.LINEAR);
+            Autocorrect parallel = new Autocorrect(dictionary, 3, responseLimit, false, SearchStrategy.LINEAR);
+            parallel.setParallelScoring(1, 4);
+            assertEquals(4, parallel.getParallelism());
+            for (int i = 0; i < 200; i++) {
+                String word = mutate(random, dictionary[random.nextInt(dictionary.length)], random.nextInt(4));
+                assertArrayEquals(sequential.runTest(word), parallel.runTest(word), "Incorrect words returned for " + word + ".");
+            }
+            parallel.setParallelScoring(0, 1);
+        }
+    }
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    public void testParallelScoringSwitch() throws Exception {
+        // Replacing the pool while queries are scoring on it must not fail them (nor change their results)
+        setTestData(2);
+        Autocorrect sequential = new Autocorrect(dictionary, 3, 5, false, SearchStrategy.LINEAR);
+        Autocorrect parallel = new Autocorrect(dictionary, 3, 5, false, SearchStrategy.LINEAR);
+        parallel.setParallelScoring(1, 2);
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> queries = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Random random = new Random(t);
+                queries.add(clients.submit(() -> {
+                    for (int i = 0; i < 300; i++) {
+                        String word = mutate(random, dictionary[random.nextInt(dictionary.length)], random.nextInt(4));
+                        assertArrayEquals(sequential.runTest(word), parallel.runTest(word), "Incorrect words returned for " + word + ".");
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; queries.stream().anyMatch(query -> !query.isDone()); i++) {
+                parallel.setParallelScoring(i % 3 == 2 ? 0 : 1, 1 + i % 3);
+                Thread.sleep(1);
+            }
+            for (Future<?> query : queries) {
+                query.get();
+            }
+        } finally {
+            clients.shutdown();
+            parallel.setParallelScoring(0, 1);
+        }
+    }
+
+    @Test
+    public void testCorrectText() {
+        setTestData(2);
+        Autocorrect autocorrect = new Autocorrect(dictionary, threshold, Integer.MAX_VALUE, true, SearchStrategy.TRIGRAM);
+        String text = dictionary[0] + ", " + typed + "! " + typed.toUpperCase() + " (" + dictionary[1] + ")";
+        List<Correction> corrections = autocorrect.correctText(text);
+
+        // Only the misspelling is reported (both times, with the same suggestions)
+        assertEquals(2, corrections.size(), "Incorrect number of corrections.");
+        int first = text.indexOf(typed);
+        int second = text.indexOf(typed.toUpperCase());
+        assertEquals(first, corrections.get(0).getStart());
+        assertEquals(first + typed.length(), corrections.get(0).getEnd());
+        assertEquals(second, corrections.get(1).getStart());
+        assertEquals(typed.toUpperCase(), corrections.get(1).getWord());
+        assertArrayEquals(matches, corrections.get(0).getSuggestions().toArray(new String[0]));
+        assertArrayEquals(matches, corrections.get(1).getSuggestions().toArray(new String[0]));
+
+
+        // A stream is corrected in blocks, with the same results (and offsets) as the whole text at once
+        String document = (text + "\n").repeat(5000);
+        List<Correction> whole = autocorrect.correctText(document);
+        List<Correction> streamed = autocorrect.correctText(new StringReader(document));
+        assertEquals(whole.size(), streamed.size());
+        for (int i = 0; i < whole.size(); i++) {
+            assertEquals(whole.get(i).getWord(), streamed.get(i).getWord());
+            assertEquals(whole.get(i).getStart(), streamed.get(i).getStart());
+            assertEquals(whole.get(i).getEnd(), streamed.get(i).getEnd());
+            assertEquals(whole.get(i).getSuggestions(), streamed.get(i).getSuggestions());
+        }
+
+        // The same, with the misspellings corrected on the scoring pool
+        autocorrect.setParallelScoring(1, 2);
+        try {
+            List<Correction> parallel = autocorrect.correctText(text + " " + text.replace(typed, "x" + typed));
+            assertEquals(4, parallel.size(), "Incorrect number of corrections.");
+            assertEquals(corrections.get(1).getSuggestions(), parallel.get(1).getSuggestions());
+            assertEquals(new Autocorrect(dictionary, threshold, Integer.MAX_VALUE, true, SearchStrategy.TRIGRAM)
+                    .getTopStrings("x" + typed), parallel.get(2).getSuggestions());
+        } finally {
+            autocorrect.setParallelScoring(0, 1);
+        }
+    }
+
+    @Test
+    @Timeout(value = 60, unit = TimeUnit.SECONDS)
+    public void testConcurrentQueryOptions() throws Exception {
+        // Queries with different options on one shared instance must each get their own results
+        setTestData(2);
+        Autocorrect shared = new Autocorrect(dictionary, 2, 10, true, SearchStrategy.TRIGRAM);
+        shared.setParallelScoring(64, 2);
+        SearchStrategy[] strategies = SearchStrategy.values();
+        int[] responseLimits = {1, 5, Integer.MAX_VALUE};
+        int threads = 12;
+        Random random = new Random(0);
+
+        // Expected results, from an instance configured with each thread's options
+        QueryOptions[] options = new QueryOptions[threads];
+        String[][] words = new String[threads][50];
+        String[][][] expected = new String[threads][50][];
+        for (int t = 0; t < threads; t++) {
+            options[t] = new QueryOptions(1 + t % 3, responseLimits[t % responseLimits.length], t % 2 == 0,
+                    strategies[t % strategies.length]);
+            Autocorrect reference = new Autocorrect(dictionary, options[t].getEditDistanceLimit(),
+                    options[t].getResponseLimit(), options[t].getIgnoreValidWords(), options[t].getStrategy());
+            for (int i = 0; i < words[t].length; i++) {
+                words[t][i] = mutate(random, dictionary[random.nextInt(dictionary.length)], random.nextInt(3));
+                List<String> results = reference.getTopStrings(words[t][i]);
+                expected[t][i] = results == null ? null : results.toArray(new String[0]);
+            }
+        }
+
+        // Run every thread's queries at once, several times over
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int round = 0; round < 20; round++) {
+                        for (int i = 0; i < words[thread].length; i++) {
+                            List<String> results = shared.getTopStrings(words[thread][i], options[thread]);
+                            assertArrayEquals(expected[thread][i], results == null ? null : results.toArray(new String[0]),
+                                    "Incorrect words returned for " + words[thread][i] + " with " + options[thread] + ".");
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            shared.setParallelScoring(0, 1);
+        }
+
+        // The instance's own options are untouched
+        assertEquals(new QueryOptions(2, 10, true, SearchStrategy.TRIGRAM), shared.getDefaultOptions());
+    }
+
+    @Test
+    public void testResultCache() {
+        setTestData(2);
+        Autocorrect autocorrect = new Autocorrect(dictionary, threshold, Integer.MAX_VALUE, false, SearchStrategy.TRIGRAM);
+        autocorrect.setResultCache(50, 1_000_000);
+        SuggestionCache cache = autocorrect.getResultCache();
+
+        // A repeated query is a hit, with the same results
+        assertArrayEquals(matches, autocorrect.getTopStrings(typed).toArray(new String[0]));
+        assertArrayEquals(matches, autocorrect.getTopStrings(typed.toUpperCase()).toArray(new String[0]));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Results can't be modified, whether they're cached or not
+        assertThrows(UnsupportedOperationException.class, () -> autocorrect.getTopStrings(typed).add("x"));
+        assertThrows(UnsupportedOperationException.class, () -> new Autocorrect(dictionary, threshold)
+                .getTopStrings(typed).add("x"));
+
+        // Other options are cached separately
+        QueryOptions options = autocorrect.getDefaultOptions().withResponseLimit(1);
+        assertEquals(1, autocorrect.getTopStrings(typed, options).size());
+        assertEquals(2, cache.getMissCount());
+
+        // Frequently asked words survive a scan of one-off words
+        Random random = new Random(0);
+        String[] hot = new String[10];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = dictionary[random.nextInt(dictionary.length)];
+            for (int j = 0; j < 5; j++) {
+                autocorrect.getTopStrings(hot[i]);
+            }
+        }
+        for (int i = 0; i < 500; i++) {
+            autocorrect.getTopStrings(randomWord(random, 8));
+        }
+        assertEquals(50, cache.size());
+        assertTrue(cache.getEvictionCount() > 0);
+        long hits = cache.getHitCount();
+        for (String word : hot) {
+            autocorrect.getTopStrings(word);
+        }
+        assertEquals(hits + hot.length, cache.getHitCount(), "Frequently asked words were evicted.");
+
+        // Invalidation drops everything, including results computed before it
+        int generation = cache.generation();
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        SuggestionCache.Key key = new SuggestionCache.Key(typed, autocorrect.getDefaultOptions());
+        cache.put(key, List.of(), generation);
+        assertSame(SuggestionCache.ABSENT, cache.get(key));
+
+        // The byte bound holds too
+        autocorrect.setResultCache(1000, 2000);
+        for (int i = 0; i < 100; i++) {
+            autocorrect.getTopStrings(dictionary[i]);
+        }
+        assertTrue(autocorrect.getResultCache().estimatedBytes() <= 2000);
+    }
+
+    @Test
+    public void testTypingSession() {
+        // Typing (with backspaces and edits in the middle) must give the same suggestions as searching from scratch
+        setTestData(2);
+        Random random = new Random(0);
+        for (int limit = 1; limit <= 3; limit++) {
+            Autocorrect autocorrect = new Autocorrect(dictionary, limit, 5, true, SearchStrategy.LINEAR);
+            QueryOptions options = autocorrect.getDefaultOptions();
+            TypingSession session = autocorrect.newTypingSession();
+            for (int i = 0; i < 30; i++) {
+                String target = dictionary[random.nextInt(dictionary.length)];
+                StringBuilder typed = new StringBuilder();
+                for (int j = 0; j < target.length(); j++) {
+                    int operation = random.nextInt(8);
+                    if (operation == 0 && typed.length() > 0) {
+                        typed.deleteCharAt(typed.length() - 1);
+                    } else if (operation == 1 && typed.length() > 0) {
+                        typed.setCharAt(random.nextInt(typed.length()), (char) ('a' + random.nextInt(26)));
+                    }
+                    typed.append(target.charAt(j));
+                    String input = typed.toString();
+                    assertEquals(autocorrect.getTopStrings(input), session.update(input, options),
+                            "Incorrect words returned for " + input + ".");
+                }
+            }
+
+            // Changing the limit mid-word starts over
+            QueryOptions wider = options.withEditDistanceLimit(limit + 1).withIgnoreValidWords(false);
+            assertEquals(autocorrect.getTopStrings(typed, wider), session.update(typed, wider));
+        }
+    }
+
+    private String mutate(Random random, String word, int edits) {
+        StringBuilder mutated = new StringBuilder(word);
+        for (int i = 0; i < edits; i++) {
+            int operation = random.nextInt(3);
+            if (operation == 0 && mutated.length() > 0) {
+                mutated.deleteCharAt(random.nextInt(mutated.length()));
+            } else if (operation == 1) {
+                mutated.insert(random.nextInt(mutated.length() + 1), (char) ('a' + random.nextInt(26)));
+            } else if (mutated.length() > 0) {
+                mutated.setCharAt(random.nextInt(mutated.length()), (char) ('a' + random.nextInt(26)));
+            }
+        }
+        return mutated.toString();
+    }
+
+    private String randomWord(Random random, int length) {
+        // Small alphabet, so that words are actually similar
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(4)));
+        }
+        return word.toString();
+    }
+
+    private int fullEditDistance(String word1, String word2) {
+        int[][] editDistances = new int[word1.length() + 1][word2.length() + 1];
+        for (int i = 0; i <= word1.length(); i++) {
+            for (int j = 0; j <= word2.length(); j++) {
+                if (i == 0 || j == 0) {
+                    editDistances[i][j] = i + j;
+                } else {
+                    int replace = editDistances[i - 1][j - 1] + (word1.charAt(i - 1) == word2.charAt(j - 1) ? 0 : 1);
+                    editDistances[i][j] = Math.min(replace, Math.min(editDistances[i - 1][j], editDistances[i][j - 1]) + 1);
+                }
+            }
+        }
+        return editDistances[word1.length()][word2.length()];
+    }
+
+    @Test
+    public void testLiveUpdates() throws Exception {
+        // Adding and removing words must answer exactly like a dictionary built with them, before and after compaction
+        setTestData(2);
+        Random random = new Random(0);
+        for (SearchStrategy strategy : SearchStrategy.values()) {
+            Autocorrect live = new Autocorrect(dictionary, 2, 5, false, strategy);
+            QueryOptions options = live.getDefaultOptions();
+            TypingSession session = live.newTypingSession();
+            Set<String> words = new TreeSet<>(List.of(dictionary));
+            for (int round = 0; round < 3; round++) {
+                List<String> added = new ArrayList<>();
+                List<String> removed = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    added.add(mutate(random, dictionary[random.nextInt(dictionary.length)], 1));
+                    removed.add(dictionary[random.nextInt(dictionary.length)]);
+                }
+                live.addWords(added);
+                live.removeWords(removed);
+                words.addAll(added);
+                words.removeAll(removed);
+                assertEquals(words.size(), live.getDictionarySize());
+
+                Autocorrect rebuilt = new Autocorrect(words.toArray(new String[0]), 2, 5, false, strategy);
+                for (int i = 0; i < 100; i++) {
+                    String word = mutate(random, i % 2 == 0 ? added.get(i % added.size()) : removed.get(i % removed.size()), 1);
+                    assertEquals(rebuilt.getTopStrings(word), live.getTopStrings(word),
+                            "Incorrect words returned for " + word + " (" + strategy + ").");
+                    assertEquals(rebuilt.getTopStrings(word), session.update(word, options),
+                            "Incorrect words typed for " + word + " (" + strategy + ").");
+                }
+                if (round == 1) {
+                    live.compact();
+                    assertEquals(0, live.getPendingChanges());
+                }
+            }
+        }
+
+        // Single words, and words which are already (or not) there
+        Autocorrect live = new Autocorrect(dictionary, 2, 5, true, SearchStrategy.TRIGRAM);
+        assertTrue(live.addWord("Zyzzyva"));
+        assertTrue(!live.addWord("zyzzyva"));
+        assertNull(live.getTopStrings("zyzzyva"));
+        assertTrue(live.getTopStrings("zyzzyvas").contains("zyzzyva"));
+        assertTrue(live.removeWord(dictionary[0]));
+        assertTrue(!live.removeWord(dictionary[0]));
+        assertNotNull(live.getTopStrings(dictionary[0]));
+        assertTrue(live.removeWord("zyzzyva"));
+        assertTrue(!live.getTopStrings("zyzzyvas").contains("zyzzyva"));
+
+        // Queries running while words are added see either the old or the new dictionary, never a mix
+        Autocorrect shared = new Autocorrect(dictionary, 1, Integer.MAX_VALUE, false, SearchStrategy.TRIGRAM);
+        List<String> batch = List.of("qqqa", "qqqb", "qqqc", "qqqd");
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                readers.add(pool.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        int matches = shared.getTopStrings("qqqq").size();
+                        assertTrue(matches == 0 || matches == batch.size(), "Partial update seen: " + matches + " matches.");
+                    }
+                }));
+            }
+            Future<?> writer = pool.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    shared.addWords(batch);
+                    shared.removeWords(batch);
+                }
+            });
+            writer.get();
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueryMetrics() {
+        // Every stage a query goes through is timed, with its candidate counts, and results don't change
+        setTestData(2);
+        for (SearchStrategy strategy : SearchStrategy.values()) {
+            Autocorrect autocorrect = new Autocorrect(dictionary, 2, 5, true, strategy);
+            List<String> expected = autocorrect.getTopStrings(typed);
+            SearchStrategy ran = autocorrect.explain(typed, autocorrect.getDefaultOptions()).getStrategy();
+            List<QueryTrace.Stage> stages = new ArrayList<>();
+            List<Long> candidates = new ArrayList<>();
+            autocorrect.setQueryMetrics(trace -> {
+                for (QueryTrace.Stage stage : QueryTrace.Stage.values()) {
+                    if (trace.getNanos(stage) >= 0) {
+                        stages.add(stage);
+                    }
+                }
+                candidates.add(trace.getCandidates());
+                assertEquals(trace.isValid() ? strategy : ran, trace.getStrategy());
+                assertEquals(2, trace.getEditDistanceLimit());
+            });
+
+            assertEquals(expected, autocorrect.getTopStrings(typed));
+            boolean walk = ran == SearchStrategy.BK_TREE || ran == SearchStrategy.DAWG || ran == SearchStrategy.TRIE;
+            assertEquals(walk ? List.of(QueryTrace.Stage.VALIDATION, QueryTrace.Stage.SCORING, QueryTrace.Stage.SELECTION)
+                    : List.of(QueryTrace.Stage.VALIDATION, QueryTrace.Stage.CANDIDATES, QueryTrace.Stage.SCORING,
+                    QueryTrace.Stage.SELECTION), stages, "Incorrect stages for " + strategy + ".");
+            assertTrue(candidates.get(0) > 0, "No candidates for " + strategy + ".");
+
+            // Valid words stop after the check
+            stages.clear();
+            assertNull(autocorrect.getTopStrings(dictionary[0]));
+            assertEquals(List.of(QueryTrace.Stage.VALIDATION), stages);
+            assertEquals(-1L, candidates.get(1));
+        }
+    }
+
+    @Test
+    public void testQueryPlanner() {
+        // Indexes are profiled as they're built, so plans consider them right away (larger distances use the
+        // configured distance's profiles)
+        setTestData(2);
+        DictionaryIndex index = new DictionaryIndex(new WordStore(dictionary), null, 2);
+        assertEquals(List.of(SearchStrategy.LINEAR), estimated(index.planner().plan("recieving", 2)));
+        index.prepare(SearchStrategy.AUTO);
+        assertEquals(List.of(SearchStrategy.LINEAR, SearchStrategy.TRIGRAM, SearchStrategy.DAWG),
+                estimated(index.planner().plan("recieving", 2)));
+        assertTrue(index.planner().isProfiled(SearchStrategy.TRIGRAM, 1) && index.planner().isProfiled(SearchStrategy.DAWG, 2));
+        index.getBKTree();
+        assertTrue(index.planner().isProfiled(SearchStrategy.BK_TREE, 2));
+        assertEquals(List.of(SearchStrategy.LINEAR, SearchStrategy.TRIGRAM, SearchStrategy.BK_TREE, SearchStrategy.DAWG),
+                estimated(index.planner().plan("accommodationz", 3)));
+        assertFalse(index.planner().isProfiled(SearchStrategy.TRIGRAM, 3));
+
+        // Whichever strategy the planner picks, the results must match scoring every word
+        Random random = new Random(0);
+        for (int limit = 1; limit <= 3; limit++) {
+            Autocorrect linear = new Autocorrect(dictionary, limit, Integer.MAX_VALUE, false, SearchStrategy.LINEAR);
+            Autocorrect auto = new Autocorrect(dictionary, limit, Integer.MAX_VALUE, false, SearchStrategy.AUTO);
+            QueryOptions options = auto.getDefaultOptions();
+            for (SearchStrategy strategy : SearchStrategy.values()) {
+                auto.explain(dictionary[0], options.withStrategy(strategy));
+            }
+            Set<SearchStrategy> chosen = new TreeSet<>();
+            for (int i = 0; i < 300; i++) {
+                String word = mutate(random, dictionary[random.nextInt(dictionary.length)], random.nextInt(limit + 2));
+                assertArrayEquals(linear.runTest(word), auto.runTest(word), "Incorrect words returned for " + word + " (limit " + limit + ").");
+
+                // The plan runs the cheapest strategy, and the length window is counted exactly
+                QueryPlan plan = auto.explain(word, options);
+                chosen.add(plan.getStrategy());
+                Set<SearchStrategy> estimated = new TreeSet<>();
+                for (QueryPlan.Estimate estimate : plan.getEstimates()) {
+                    estimated.add(estimate.getStrategy());
+                    assertTrue(estimate.getCost() >= plan.getEstimates().stream()
+                            .filter(e -> e.getStrategy() == plan.getStrategy()).findFirst().orElseThrow().getCost());
+                    if (estimate.getStrategy() == SearchStrategy.LINEAR) {
+                        assertEquals(plan.getWindowSize(), estimate.getCandidates());
+                    }
+                }
+                assertTrue(estimated.containsAll(List.of(SearchStrategy.LINEAR, SearchStrategy.SYMSPELL,
+                        SearchStrategy.BK_TREE, SearchStrategy.TRIE)), "Missing estimates for " + word + ".");
+                assertTrue(plan.getActualCandidates() >= 0);
+                if (plan.getStrategy() == SearchStrategy.LINEAR) {
+                    assertEquals(plan.getWindowSize(), plan.getActualCandidates());
+                }
+            }
+            assertTrue(chosen.size() > 1, "Only " + chosen + " chosen (limit " + limit + ").");
+        }
+    }
+
+    @Test
+    public void testQueryScheduler() throws Exception {
+        setTestData(2);
+        for (QueryScheduler.Overload overload : QueryScheduler.Overload.values()) {
+            Autocorrect autocorrect = new Autocorrect(dictionary, 2, 5, true, SearchStrategy.TRIGRAM);
+            QueryScheduler scheduler = new QueryScheduler(autocorrect, 1, 1, 1, overload);
+            QueryOptions expensive = autocorrect.getDefaultOptions().withEditDistanceLimit(3);
+
+            // Hold the scoring thread in its first query, so the next one fills the queue
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            autocorrect.setQueryMetrics(trace -> {
+                if (Thread.currentThread().getName().startsWith("autocorrect-scoring")) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            try {
+                Future<QueryScheduler.Suggestions> running = scheduler.suggest(typed, expensive);
+                started.await();
+                Future<QueryScheduler.Suggestions> queued = scheduler.suggest(typed + "s", expensive);
+
+                // Cheap queries don't wait
+                assertNull(scheduler.suggest(dictionary[0], expensive).get().getWords());
+                assertEquals(autocorrect.getTopStrings(typed, expensive.withEditDistanceLimit(1)),
+                        scheduler.suggest(typed, expensive.withEditDistanceLimit(1)).get().getWords());
+
+                // The queue is full: degrade to the inline distance, or reject
+                String other = typed + "es";
+                CompletableFuture<QueryScheduler.Suggestions> overloaded = scheduler.suggest(other, expensive);
+                if (overload == QueryScheduler.Overload.DEGRADE) {
+                    assertTrue(overloaded.get().isDegraded());
+                    assertEquals(1, overloaded.get().getEditDistance());
+                    assertEquals(autocorrect.getTopStrings(other, expensive.withEditDistanceLimit(1)), overloaded.get().getWords());
+                } else {
+                    assertTrue(overloaded.isCompletedExceptionally());
+                    assertEquals(1, scheduler.getRejectedCount());
+                }
+
+                // ...but an identical query shares the running search instead
+                CompletableFuture<QueryScheduler.Suggestions> shared = scheduler.suggest(typed.toUpperCase(), expensive);
+                assertTrue(!shared.isDone());
+                assertEquals(1, scheduler.getCoalescedCount());
+
+                release.countDown();
+                assertEquals(autocorrect.getTopStrings(typed, expensive), running.get().getWords());
+                assertEquals(autocorrect.getTopStrings(typed + "s", expensive), queued.get().getWords());
+                assertTrue(!running.get().isDegraded());
+                assertSame(running.get(), shared.get());
+            } finally {
+                release.countDown();
+                scheduler.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        List<CompletableFuture<String>> computations = new ArrayList<>();
+
+        // Concurrent callers for a key share one computation, and all get its result
+        CompletableFuture<String> first = flights.join("a", () -> add(computations, new CompletableFuture<>()));
+        CompletableFuture<String> second = flights.join("a", () -> add(computations, new CompletableFuture<>()));
+        CompletableFuture<String> other = flights.join("b", () -> add(computations, new CompletableFuture<>()));
+        assertEquals(2, computations.size());
+        assertEquals(1, flights.getCoalescedCount());
+        computations.get(0).complete("x");
+        assertEquals("x", first.get());
+        assertEquals("x", second.get());
+        assertTrue(!other.isDone());
+
+        // Finished computations are forgotten
+        assertEquals(1, flights.getInFlightCount());
+        CompletableFuture<String> third = flights.join("a", () -> CompletableFuture.completedFuture("y"));
+        assertEquals("y", third.get());
+
+        // A caller giving up only detaches, until the last one does
+        CompletableFuture<String> fourth = flights.join("b", () -> add(computations, new CompletableFuture<>()));
+        other.cancel(false);
+        assertTrue(!computations.get(1).isCancelled());
+        fourth.orTimeout(1, TimeUnit.MILLISECONDS);
+        assertThrows(ExecutionException.class, fourth::get);
+
+        // (the timeout's thread detaches it after completing it, so wait for the cancellation)
+        assertThrows(CancellationException.class, () -> computations.get(1).get(10, TimeUnit.SECONDS));
+        assertEquals(1, flights.getAbandonedCount());
+        assertEquals(0, flights.getInFlightCount());
+
+        // Failures reach every caller, and aren't kept either
+        CompletableFuture<String> failing = flights.join("c", () -> add(computations, new CompletableFuture<>()));
+        CompletableFuture<String> failingToo = flights.join("c", () -> add(computations, new CompletableFuture<>()));
+        computations.get(2).completeExceptionally(new IllegalStateException());
+        assertTrue(failing.isCompletedExceptionally() && failingToo.isCompletedExceptionally());
+        assertEquals("z", flights.join("c", () -> CompletableFuture.completedFuture("z")).get());
+    }
+
+    @Test
+    public void testMisspellingGenerator() {
+        setTestData(2);
+
+        // The same seed gives the same typos
+        MisspellingGenerator first = new MisspellingGenerator(dictionary, 7, 1.0);
+        MisspellingGenerator second = new MisspellingGenerator(dictionary, 7, 1.0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first.next(), second.next());
+        }
+
+        // Typos are at most 2 edits away (a transposition is 2 Levenshtein edits), and frequent words dominate
+        MisspellingGenerator generator = new MisspellingGenerator(dictionary, 0, 1.0);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            String word = generator.nextWord();
+            counts.merge(word, 1, Integer::sum);
+            String typo = generator.misspell(word);
+            assertTrue(fullEditDistance(word, typo) <= 4, word + " -> " + typo);
+        }
+        int top = counts.values().stream().max(Integer::compare).orElse(0);
+        assertTrue(top > 5000 / Math.log(dictionary.length) / 2, "Not Zipfian: top word drawn " + top + " times.");
+
+        // Substitutions are by adjacent keys
+        assertEquals("weadzx", new String(MisspellingGenerator.adjacentKeys('s')));
+    }
+
+    @Test
+    public void testCorrectFile() throws IOException {
+        Autocorrect autocorrect = new Autocorrect(new String[]{"hello", "world", "don't", "quick"}, 2, 3, true, SearchStrategy.TRIGRAM);
+        Path input = Files.createTempFile("autocorrect", ".txt");
+        Path whole = Files.createTempFile("autocorrect", ".out");
+        Path chunked = Files.createTempFile("autocorrect", ".out");
+        try {
+            Files.writeString(input, "Helo wrld, dont QUIK!\nhello w\u00f6rld don't\n".repeat(50));
+
+            // Misspellings are replaced (keeping their case), everything else is copied as is
+            FileCorrector.Summary summary = new FileCorrector(autocorrect, autocorrect.getDefaultOptions(), 1 << 20, 1)
+                    .correct(input, whole, false);
+            assertEquals("Hello world, don't QUICK!\nhello world don't\n".repeat(50), Files.readString(whole));
+            assertEquals(350, summary.getWords());
+            assertEquals(250, summary.getMisspellings());
+
+            // Chunks larger than a mapping are capped
+            new FileCorrector(autocorrect, autocorrect.getDefaultOptions(), Long.MAX_VALUE, 1).correct(input, chunked, false);
+            assertEquals(Files.readString(whole), Files.readString(chunked));
+
+            // Chunks (down to a word each) don't change the output, nor the report's offsets
+            for (boolean dryRun : new boolean[]{false, true}) {
+                new FileCorrector(autocorrect, autocorrect.getDefaultOptions(), 1 << 20, 1).correct(input, whole, dryRun);
+                new FileCorrector(autocorrect, autocorrect.getDefaultOptions(), 3, 4).correct(input, chunked, dryRun);
+                assertEquals(Files.readString(whole), Files.readString(chunked));
+            }
+            assertEquals("0\tHelo\thello", Files.readAllLines(chunked).get(0));
+            assertEquals("16\tQUIK\tquick", Files.readAllLines(chunked).get(3));
+
+            // Without a boundary before the limit, a word is split there (but not a character)
+            Files.writeString(input, "ab\u00e9cd efg");
+            try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+                assertEquals(6, FileCorrector.boundary(channel, 1, 10, 10));
+                assertEquals(2, FileCorrector.boundary(channel, 1, 3, 10));
+                assertEquals(4, FileCorrector.boundary(channel, 1, 4, 10));
+                assertEquals(10, FileCorrector.boundary(channel, 7, 10, 10));
+            }
+        } finally {
+            Files.delete(input);
+            Files.delete(whole);
+            Files.delete(chunked);
+        }
+    }
+
+    @Test
+    public void testCompletions() {
+        // Completions must be the best words (by frequency, then length) within 0 (or 1, fuzzy) edits of a prefix
+        setTestData(2);
+        Random random = new Random(0);
+        Map<String, Long> frequencies = new HashMap<>();
+        for (int i = 0; i < dictionary.length / 4; i++) {
+            frequencies.put(dictionary[random.nextInt(dictionary.length)], (long) random.nextInt(100));
+        }
+        Autocorrect autocorrect = new Autocorrect(dictionary, 2, 10, true, SearchStrategy.TRIGRAM);
+        for (Map<String, Long> ranking : Arrays.asList(null, frequencies)) {
+            autocorrect.setCompletions(5, ranking);
+            for (int i = 0; i < 200; i++) {
+                // Added words are merged in until they're compacted
+                if (i == 100) {
+                    autocorrect.addWords(List.of("zzap", "zzapped", dictionary[0] + "zz"));
+                }
+                String[] words = autocorrect.snapshot().words();
+                String word = words[random.nextInt(words.length)];
+                String prefix = mutate(random, word.substring(0, random.nextInt(word.length() + 1)), random.nextInt(2));
+                for (int limit : new int[]{1, 5}) {
+                    for (boolean fuzzy : new boolean[]{false, true}) {
+                        assertEquals(completions(words, ranking, prefix, limit, fuzzy),
+                                autocorrect.getCompletions(prefix, limit, fuzzy), "Incorrect completions for " + prefix + ".");
+                    }
+                }
+            }
+            autocorrect.compact();
+            assertEquals(List.of("zzap", "zzapped"), autocorrect.getCompletions("zz"));
+            autocorrect.removeWords(List.of("zzap", "zzapped", dictionary[0] + "zz"));
+        }
+
+        // Removed words aren't completed (a prefix can then have fewer completions, until they're compacted)
+        autocorrect.removeWord(dictionary[1]);
+        assertFalse(autocorrect.getCompletions(dictionary[1], 5, true).contains(dictionary[1]));
+
+        // At most the completion size is kept per prefix
+        assertEquals(5, autocorrect.getCompletions("", 100, false).size());
+        assertThrows(IllegalArgumentException.class, () -> autocorrect.getCompletions("a", 0, false));
+    }
+
+    private List<String> completions(String[] words, Map<String, Long> frequencies, String prefix, int limit, boolean fuzzy) {
+        // Distance to the closest prefix of each word (fuzzy ones only count if there aren't enough exact ones)
+        Map<String, Integer> distances = new HashMap<>();
+        int exact = 0;
+        for (String word : words) {
+            int distance = Integer.MAX_VALUE;
+            for (int j = 0; j <= word.length(); j++) {
+                distance = Math.min(distance, fullEditDistance(prefix, word.substring(0, j)));
+            }
+            if (distance == 0) {
+                exact++;
+            }
+            if (distance <= (fuzzy ? 1 : 0)) {
+                distances.put(word, distance);
+            }
+        }
+        List<String> completions = new ArrayList<>(distances.keySet());
+        completions.sort(Comparator.comparingInt((String word) -> distances.get(word))
+                .thenComparingLong(word -> frequencies == null ? 0 : -frequencies.getOrDefault(word, 0L))
+                .thenComparingInt(String::length)
+                .thenComparing(word -> word));
+        if (exact >= limit) {
+            completions.removeIf(word -> distances.get(word) > 0);
+        }
+        return completions.subList(0, Math.min(limit, completions.size()));
+    }
+
+    private static <T> T add(List<T> list, T item) {
+        list.add(item);
+        return item;
+    }
+
     private void setTestData(int test) {
         try {
             Resource testResource = new ClassPathResource("test_files/" + test + ".txt");